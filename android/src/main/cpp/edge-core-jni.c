@@ -1,7 +1,71 @@
 #include <jni.h>
-#include <alloca.h>
+#include <errno.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
 #include "scrypt/crypto_scrypt.h"
 
+/*
+ * Each worker thread keeps its scrypt scratch space between calls,
+ * so repeated logins and benchmarks don't keep mapping fresh memory.
+ * Sizes round up to whole pages, so a buffer holds no more than it needs.
+ * Buffers bigger than this go back to the system after each call:
+ */
+#define ARENA_PAGE_SIZE ((size_t)16 << 10)
+#define ARENA_RETAIN_MAX ((size_t)64 << 20)
+
+struct arena {
+  void *data;
+  size_t size;
+};
+
+static pthread_key_t arenaKey;
+static pthread_once_t arenaOnce = PTHREAD_ONCE_INIT;
+
+static void arenaDestroy(void *cookie) {
+  struct arena *arena = cookie;
+  free(arena->data);
+  free(arena);
+}
+
+static void arenaInit(void) {
+  pthread_key_create(&arenaKey, arenaDestroy);
+}
+
+/** Returns this thread's scratch space, grown to at least `size` bytes. */
+static struct arena *arenaGet(size_t size) {
+  pthread_once(&arenaOnce, arenaInit);
+  struct arena *arena = pthread_getspecific(arenaKey);
+  if (arena == NULL) {
+    arena = calloc(1, sizeof(struct arena));
+    if (arena == NULL) return NULL;
+    pthread_setspecific(arenaKey, arena);
+  }
+  if (arena->size >= size) return arena;
+
+  size_t pageSize = size <= SIZE_MAX - (ARENA_PAGE_SIZE - 1)
+    ? (size + ARENA_PAGE_SIZE - 1) & ~(ARENA_PAGE_SIZE - 1)
+    : size;
+
+  free(arena->data);
+  arena->data = malloc(pageSize);
+  arena->size = arena->data != NULL ? pageSize : 0;
+  return arena->data != NULL ? arena : NULL;
+}
+
+/** Gives oversized scratch space back once a call finishes. */
+static void arenaTrim(struct arena *arena) {
+  if (arena->size <= ARENA_RETAIN_MAX) return;
+  free(arena->data);
+  arena->data = NULL;
+  arena->size = 0;
+}
+
+static void throwError(JNIEnv *env, const char *className, const char *message) {
+  jclass errorClass = (*env)->FindClass(env, className);
+  if (errorClass != NULL) (*env)->ThrowNew(env, errorClass, message);
+}
+
 JNIEXPORT jbyteArray JNICALL
 Java_app_edge_reactnative_core_EdgeNative_scrypt(
     JNIEnv *env,
@@ -11,26 +75,70 @@ Java_app_edge_reactnative_core_EdgeNative_scrypt(
     jint n,
     jint r,
     jint p,
-    jint dklen
+    jint dklen,
+    jint threads,
+    jlong maxMemory,
+    jlong maxThreadMemory
 ) {
+  if (
+    n <= 0 || r <= 0 || p <= 0 || dklen <= 0 || threads <= 0 ||
+    maxMemory < 0 || maxThreadMemory < 0
+  ) {
+    throwError(env, "java/lang/IllegalArgumentException", "Invalid scrypt parameters");
+    return NULL;
+  }
+
+  // Fail fast if even one thread would need more than the hard cap:
+  if (maxThreadMemory > 0 && (uint64_t)r > (uint64_t)maxThreadMemory / 128 / (uint64_t)n) {
+    throwError(env, "java/lang/IllegalArgumentException", "Scrypt parameters are too large");
+    return NULL;
+  }
   jsize dataLength = (*env)->GetArrayLength(env, data);
   jsize saltLength = (*env)->GetArrayLength(env, salt);
-  jbyte *pData = alloca(dataLength * sizeof(jbyte));
-  jbyte *pSalt = alloca(saltLength * sizeof(jbyte));
-  jbyte *pOut = alloca(dklen * sizeof(jbyte));
-  jbyteArray out = (*env)->NewByteArray(env, dklen);
-  if (!out) return NULL;
 
+  // The memory ceiling only lowers the thread count:
+  uint32_t nthreads = threads;
+  size_t scratchSize = crypto_scrypt_threads_plan(n, r, p, &nthreads, maxMemory);
+  if (scratchSize == 0) {
+    throwError(
+      env,
+      "java/lang/IllegalArgumentException",
+      errno == ENOMEM
+        ? "Scrypt parameters are too large"
+        : "Invalid scrypt parameters"
+    );
+    return NULL;
+  }
+
+  // The inputs and output share the scratch space, after the scrypt part:
+  struct arena *arena = arenaGet(scratchSize + dataLength + saltLength + dklen);
+  if (arena == NULL) {
+    throwError(env, "java/lang/OutOfMemoryError", "Cannot allocate scrypt memory");
+    return NULL;
+  }
+  jbyte *pData = (jbyte *)arena->data + scratchSize;
+  jbyte *pSalt = pData + dataLength;
+  jbyte *pOut = pSalt + saltLength;
   (*env)->GetByteArrayRegion(env, data, 0, dataLength, pData);
   (*env)->GetByteArrayRegion(env, salt, 0, saltLength, pSalt);
 
-  if (crypto_scrypt(
-    pData, dataLength,
-    pSalt, saltLength,
+  int result = crypto_scrypt_threads(
+    (uint8_t *)pData, dataLength,
+    (uint8_t *)pSalt, saltLength,
     n, r, p,
-    pOut, dklen
-  )) return NULL;
+    (uint8_t *)pOut, dklen,
+    nthreads, maxMemory,
+    arena->data, scratchSize
+  );
+
+  jbyteArray out = NULL;
+  if (result == 0) {
+    out = (*env)->NewByteArray(env, dklen);
+    if (out != NULL) (*env)->SetByteArrayRegion(env, out, 0, dklen, pOut);
+  }
 
-  (*env)->SetByteArrayRegion(env, out, 0, dklen, pOut);
+  // Don't leave the password, or the state derived from it, lying around:
+  memset(arena->data, 0, scratchSize + dataLength + saltLength + dklen);
+  arenaTrim(arena);
   return out;
 }
@@ -29,6 +29,7 @@
 /* #include "scrypt_platform.h" */
 
 #include <errno.h>
+#include <pthread.h>
 #include <stdint.h>
 #include <stdlib.h>
 #include <string.h>
@@ -37,6 +38,7 @@
 #include "sysendian.h"
 
 #include "crypto_scrypt.h"
+#include "crypto_scrypt_smix.h"
 
 static void blkcpy(uint8_t *, uint8_t *, size_t);
 static void blkxor(uint8_t *, uint8_t *, size_t);
@@ -203,6 +205,13 @@ smix(uint8_t * B, size_t r, uint64_t N, uint8_t * V, uint8_t * XY)
 	blkcpy(B, X, 128 * r);
 }
 
+void
+crypto_scrypt_smix_ref(uint8_t * B, size_t r, uint64_t N, void * V, void * XY)
+{
+
+	smix(B, r, N, V, XY);
+}
+
 /**
  * crypto_scrypt(passwd, passwdlen, salt, saltlen, N, r, p, buf, buflen):
  * Compute scrypt(passwd[0 .. passwdlen - 1], salt[0 .. saltlen - 1], N, r,
@@ -221,6 +230,7 @@ crypto_scrypt(const uint8_t * passwd, size_t passwdlen,
 	uint8_t * V;
 	uint8_t * XY;
 	uint32_t i;
+	crypto_scrypt_smix_t * smix_fast = crypto_scrypt_smix();
 
 	/* Sanity-check parameters. */
 #if SIZE_MAX > UINT32_MAX
@@ -249,7 +259,7 @@ crypto_scrypt(const uint8_t * passwd, size_t passwdlen,
 	/* Allocate memory. */
 	if ((B = malloc(128 * r * p)) == NULL)
 		goto err0;
-	if ((XY = malloc(256 * r)) == NULL)
+	if ((XY = malloc(CRYPTO_SCRYPT_XY_SIZE(r))) == NULL)
 		goto err1;
 	if ((V = malloc(128UL * r * N)) == NULL)
 		goto err2;
@@ -260,7 +270,7 @@ crypto_scrypt(const uint8_t * passwd, size_t passwdlen,
 	/* 2: for i = 0 to p - 1 do */
 	for (i = 0; i < p; i++) {
 		/* 3: B_i <-- MF(B_i, N) */
-		smix(&B[i * 128 * r], r, N, V, XY);
+		smix_fast(&B[i * 128 * r], r, N, V, XY);
 	}
 
 	/* 5: DK <-- PBKDF2(P, B, 1, dkLen) */
@@ -282,3 +292,162 @@ err0:
 	/* Failure! */
 	return (-1);
 }
+
+/**
+ * One worker in crypto_scrypt_threads.  Worker t mixes the blocks
+ * t, t + nthreads, t + 2 * nthreads, and so on, using its own V and XY.
+ */
+struct smix_worker {
+	pthread_t thread;
+	uint8_t * B;
+	uint8_t * V;
+	uint8_t * XY;
+	size_t r;
+	uint64_t N;
+	uint32_t p;
+	uint32_t first;
+	uint32_t nthreads;
+	int started;
+};
+
+static void *
+smix_worker_run(void * cookie)
+{
+	struct smix_worker * w = cookie;
+	crypto_scrypt_smix_t * smix_fast = crypto_scrypt_smix();
+	uint32_t i;
+
+	for (i = w->first; i < w->p; i += w->nthreads)
+		smix_fast(&w->B[i * 128 * w->r], w->r, w->N, w->V, w->XY);
+	return (NULL);
+}
+
+/* Scratch space is carved into cache-line aligned pieces: */
+#define ROUNDUP64(x) (((uint64_t)(x) + 63) & ~(uint64_t)63)
+
+static uint64_t
+scratch_size(uint64_t N, uint32_t r, uint32_t p, uint32_t nthreads)
+{
+	uint64_t perthread = ROUNDUP64(128 * (uint64_t)(r) * N) +
+	    ROUNDUP64(CRYPTO_SCRYPT_XY_SIZE(r)) +
+	    ROUNDUP64(sizeof(struct smix_worker));
+
+	return (ROUNDUP64(128 * (uint64_t)(r) * p) + nthreads * perthread);
+}
+
+size_t
+crypto_scrypt_threads_plan(uint64_t N, uint32_t r, uint32_t p,
+    uint32_t * nthreads, size_t maxmem)
+{
+
+	/* Sanity-check parameters, the same way crypto_scrypt does. */
+	if ((uint64_t)(r) * (uint64_t)(p) >= (1 << 30)) {
+		errno = EFBIG;
+		return (0);
+	}
+	if (((N & (N - 1)) != 0) || (N == 0)) {
+		errno = EINVAL;
+		return (0);
+	}
+	if ((r > SIZE_MAX / 128 / p) ||
+#if SIZE_MAX / 256 <= UINT32_MAX
+	    (r > SIZE_MAX / 256) ||
+#endif
+	    (N > SIZE_MAX / 128 / r)) {
+		errno = ENOMEM;
+		return (0);
+	}
+
+	/* Pick a thread count that fits. */
+	if (*nthreads > p)
+		*nthreads = p;
+	if (*nthreads < 1)
+		*nthreads = 1;
+	while (*nthreads > 1 && maxmem != 0 &&
+	    scratch_size(N, r, p, *nthreads) > maxmem)
+		--*nthreads;
+
+	/*
+	 * One thread always runs, even past the ceiling, since parameters
+	 * that worked elsewhere have to keep working here:
+	 */
+	if (scratch_size(N, r, p, *nthreads) > SIZE_MAX - 63) {
+		errno = ENOMEM;
+		return (0);
+	}
+
+	/* Leave room to align the start: */
+	return ((size_t)scratch_size(N, r, p, *nthreads) + 63);
+}
+
+int
+crypto_scrypt_threads(const uint8_t * passwd, size_t passwdlen,
+    const uint8_t * salt, size_t saltlen, uint64_t N, uint32_t r, uint32_t p,
+    uint8_t * buf, size_t buflen, uint32_t nthreads, size_t maxmem,
+    void * scratch, size_t scratchlen)
+{
+	struct smix_worker * workers;
+	uint8_t * owned = NULL;
+	uint8_t * B;
+	uint8_t * next;
+	size_t size;
+	uint32_t t;
+
+	/* Allocate memory, unless the caller has provided enough. */
+	if ((size = crypto_scrypt_threads_plan(N, r, p, &nthreads,
+	    maxmem)) == 0)
+		return (-1);
+	if (scratch == NULL || scratchlen < size) {
+		if ((owned = malloc(size)) == NULL)
+			return (-1);
+		scratch = owned;
+	}
+
+	/* Carve up the scratch space. */
+	next = (uint8_t *)(uintptr_t)ROUNDUP64((uintptr_t)scratch);
+	B = next;
+	next += ROUNDUP64(128 * (size_t)(r) * p);
+	workers = (struct smix_worker *)next;
+	next += nthreads * ROUNDUP64(sizeof(struct smix_worker));
+	for (t = 0; t < nthreads; t++) {
+		workers[t].B = B;
+		workers[t].V = next;
+		next += ROUNDUP64(128 * (size_t)(r) * N);
+		workers[t].XY = next;
+		next += ROUNDUP64(CRYPTO_SCRYPT_XY_SIZE(r));
+		workers[t].r = r;
+		workers[t].N = N;
+		workers[t].p = p;
+		workers[t].first = t;
+		workers[t].nthreads = nthreads;
+		workers[t].started = 0;
+	}
+
+	/* 1: (B_0 ... B_{p-1}) <-- PBKDF2(P, S, 1, p * MFLen) */
+	PBKDF2_SHA256(passwd, passwdlen, salt, saltlen, 1, B, p * 128 * r);
+
+	/* 2: for i = 0 to p - 1 do, in parallel */
+	for (t = 1; t < nthreads; t++) {
+		workers[t].started = pthread_create(&workers[t].thread, NULL,
+		    smix_worker_run, &workers[t]) == 0;
+	}
+
+	/*
+	 * The calling thread does the first share, plus the share of any
+	 * worker that could not start.
+	 */
+	smix_worker_run(&workers[0]);
+	for (t = 1; t < nthreads; t++) {
+		if (workers[t].started)
+			pthread_join(workers[t].thread, NULL);
+		else
+			smix_worker_run(&workers[t]);
+	}
+
+	/* 5: DK <-- PBKDF2(P, B, 1, dkLen) */
+	PBKDF2_SHA256(passwd, passwdlen, B, p * 128 * r, 1, buf, buflen);
+
+	/* Free memory. */
+	free(owned);
+	return (0);
+}
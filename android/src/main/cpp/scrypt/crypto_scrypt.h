@@ -43,4 +43,32 @@
 int crypto_scrypt(const uint8_t *, size_t, const uint8_t *, size_t, uint64_t,
     uint32_t, uint32_t, uint8_t *, size_t);
 
+/**
+ * crypto_scrypt_threads_plan(N, r, p, nthreads, maxmem):
+ * Work out how crypto_scrypt_threads would run.  Lower nthreads to the most
+ * threads that can help, and that fit in maxmem bytes if maxmem is non-zero,
+ * then return the scratch space that many threads need.  The ceiling only
+ * limits the thread count, so one thread always runs, even if it needs more
+ * than maxmem bytes.
+ *
+ * Return 0 if the parameters are invalid or too large to address.
+ */
+size_t crypto_scrypt_threads_plan(uint64_t, uint32_t, uint32_t, uint32_t *,
+    size_t);
+
+/**
+ * crypto_scrypt_threads(passwd, passwdlen, salt, saltlen, N, r, p, buf,
+ *     buflen, nthreads, maxmem, scratch, scratchlen):
+ * Compute the same result as crypto_scrypt, but spread the p independent
+ * smix calls across up to nthreads threads, using fewer threads if needed
+ * to stay within maxmem bytes of scratch space when maxmem is non-zero.  If the caller passes a scratch
+ * buffer at least as large as crypto_scrypt_threads_plan asks for, use that
+ * instead of allocating memory.
+ *
+ * Return 0 on success; or -1 on error.
+ */
+int crypto_scrypt_threads(const uint8_t *, size_t, const uint8_t *, size_t,
+    uint64_t, uint32_t, uint32_t, uint8_t *, size_t, uint32_t, size_t,
+    void *, size_t);
+
 #endif /* !_CRYPTO_SCRYPT_H_ */
@@ -0,0 +1,479 @@
+/*
+ * Faster smix kernels for crypto_scrypt.
+ *
+ * The reference code in crypto_scrypt.c works one byte at a time. These
+ * kernels decode each block into 32-bit words once, on the way in, and
+ * encode it again on the way out, so the N-step loops only touch aligned
+ * words. The words within each 64-byte block are stored in diagonal order,
+ * so the SIMD kernels can run salsa20/8 on four 128-bit rows, the same way
+ * the SSE2 code in the scrypt distribution does.
+ */
+#include <pthread.h>
+#include <stdint.h>
+#include <string.h>
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+#define HAVE_SSE2 1
+#endif
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define HAVE_NEON 1
+#if defined(__arm__) && defined(__linux__)
+#include <sys/auxv.h>
+#define NEED_NEON_CHECK 1
+#define HWCAP_NEON_BIT (1 << 12)
+#endif
+#endif
+
+#include "sysendian.h"
+
+#include "crypto_scrypt_smix.h"
+
+/* Word i of a stored block holds word SHUFFLE(i) of the salsa20 state. */
+#define SHUFFLE(i) ((i) * 5 % 16)
+
+typedef void blockmix_t(const uint32_t *, uint32_t *, uint32_t *, size_t);
+typedef void blkxor_t(uint32_t *, const uint32_t *, size_t);
+
+/**
+ * smix_words(B, r, N, V, XY, blockmix, blkxor):
+ * Compute B = SMix_r(B, N) using the given block operations, which work on
+ * shuffled 32-bit words.  This has the same requirements as the reference
+ * smix, except that XY must be CRYPTO_SCRYPT_XY_SIZE(r) bytes.
+ */
+static inline void
+smix_words(uint8_t * B, size_t r, uint64_t N, uint32_t * V, uint32_t * XY,
+    blockmix_t * blockmix, blkxor_t * blkxor)
+{
+	uint32_t * X = XY;
+	uint32_t * Y = &XY[32 * r];
+	uint32_t * Z = &XY[64 * r];
+	uint32_t * xlast;
+	uint32_t * ylast;
+	size_t words = 32 * r;
+	uint64_t i;
+	uint64_t j;
+	size_t k;
+
+	/* The loops below take two steps at a time: */
+	if (N < 2) {
+		crypto_scrypt_smix_ref(B, r, N, V, XY);
+		return;
+	}
+
+	/* 1: X <-- B */
+	for (k = 0; k < words; k++)
+		X[k] = le32dec(&B[(k - k % 16 + SHUFFLE(k % 16)) * 4]);
+
+	/* 2: for i = 0 to N - 1 do */
+	for (i = 0; i < N; i += 2) {
+		/* 3: V_i <-- X */
+		memcpy(&V[i * words], X, words * 4);
+
+		/* 4: X <-- H(X) */
+		blockmix(X, Y, Z, r);
+
+		/* 3: V_i <-- X */
+		memcpy(&V[(i + 1) * words], Y, words * 4);
+
+		/* 4: X <-- H(X) */
+		blockmix(Y, X, Z, r);
+	}
+
+	/* 6: for i = 0 to N - 1 do */
+	xlast = &X[words - 16];
+	ylast = &Y[words - 16];
+	for (i = 0; i < N; i += 2) {
+		/* 7: j <-- Integerify(X) mod N, where word 1 sits at 13 */
+		j = (((uint64_t)(xlast[13]) << 32) + xlast[0]) & (N - 1);
+
+		/* 8: X <-- H(X \xor V_j) */
+		blkxor(X, &V[j * words], words);
+		blockmix(X, Y, Z, r);
+
+		/* 7: j <-- Integerify(X) mod N */
+		j = (((uint64_t)(ylast[13]) << 32) + ylast[0]) & (N - 1);
+
+		/* 8: X <-- H(X \xor V_j) */
+		blkxor(Y, &V[j * words], words);
+		blockmix(Y, X, Z, r);
+	}
+
+	/* 10: B' <-- X */
+	for (k = 0; k < words; k++)
+		le32enc(&B[(k - k % 16 + SHUFFLE(k % 16)) * 4], X[k]);
+}
+
+/* Portable words ---------------------------------------------------- */
+
+static void
+blkxor_scalar(uint32_t * dest, const uint32_t * src, size_t words)
+{
+	size_t i;
+
+	for (i = 0; i < words; i++)
+		dest[i] ^= src[i];
+}
+
+/**
+ * salsa20_8_scalar(Z, B):
+ * Compute Z = salsa20/8(Z xor B), where both blocks are shuffled.
+ */
+static inline void
+salsa20_8_scalar(uint32_t Z[16], const uint32_t B[16])
+{
+	uint32_t in[16];
+	uint32_t x[16];
+	size_t i;
+
+	for (i = 0; i < 16; i++)
+		in[SHUFFLE(i)] = Z[i] ^ B[i];
+	for (i = 0; i < 16; i++)
+		x[i] = in[i];
+	for (i = 0; i < 8; i += 2) {
+#define R(a,b) (((a) << (b)) | ((a) >> (32 - (b))))
+		/* Operate on columns. */
+		x[ 4] ^= R(x[ 0]+x[12], 7);  x[ 8] ^= R(x[ 4]+x[ 0], 9);
+		x[12] ^= R(x[ 8]+x[ 4],13);  x[ 0] ^= R(x[12]+x[ 8],18);
+
+		x[ 9] ^= R(x[ 5]+x[ 1], 7);  x[13] ^= R(x[ 9]+x[ 5], 9);
+		x[ 1] ^= R(x[13]+x[ 9],13);  x[ 5] ^= R(x[ 1]+x[13],18);
+
+		x[14] ^= R(x[10]+x[ 6], 7);  x[ 2] ^= R(x[14]+x[10], 9);
+		x[ 6] ^= R(x[ 2]+x[14],13);  x[10] ^= R(x[ 6]+x[ 2],18);
+
+		x[ 3] ^= R(x[15]+x[11], 7);  x[ 7] ^= R(x[ 3]+x[15], 9);
+		x[11] ^= R(x[ 7]+x[ 3],13);  x[15] ^= R(x[11]+x[ 7],18);
+
+		/* Operate on rows. */
+		x[ 1] ^= R(x[ 0]+x[ 3], 7);  x[ 2] ^= R(x[ 1]+x[ 0], 9);
+		x[ 3] ^= R(x[ 2]+x[ 1],13);  x[ 0] ^= R(x[ 3]+x[ 2],18);
+
+		x[ 6] ^= R(x[ 5]+x[ 4], 7);  x[ 7] ^= R(x[ 6]+x[ 5], 9);
+		x[ 4] ^= R(x[ 7]+x[ 6],13);  x[ 5] ^= R(x[ 4]+x[ 7],18);
+
+		x[11] ^= R(x[10]+x[ 9], 7);  x[ 8] ^= R(x[11]+x[10], 9);
+		x[ 9] ^= R(x[ 8]+x[11],13);  x[10] ^= R(x[ 9]+x[ 8],18);
+
+		x[12] ^= R(x[15]+x[14], 7);  x[13] ^= R(x[12]+x[15], 9);
+		x[14] ^= R(x[13]+x[12],13);  x[15] ^= R(x[14]+x[13],18);
+#undef R
+	}
+	for (i = 0; i < 16; i++)
+		Z[i] = in[SHUFFLE(i)] + x[SHUFFLE(i)];
+}
+
+/**
+ * blockmix_scalar(Bin, Bout, Z, r):
+ * Compute Bout = BlockMix_{salsa20/8, r}(Bin).  The input Bin must be 128r
+ * bytes in length; the output Bout must also be the same size.  The
+ * temporary space Z must be 64 bytes.
+ */
+static void
+blockmix_scalar(const uint32_t * Bin, uint32_t * Bout, uint32_t * Z, size_t r)
+{
+	size_t i;
+
+	/* 1: X <-- B_{2r - 1} */
+	memcpy(Z, &Bin[(2 * r - 1) * 16], 64);
+
+	/* 2: for i = 0 to 2r - 1 do */
+	for (i = 0; i < 2 * r; i++) {
+		/* 3: X <-- H(X \xor B_i) */
+		salsa20_8_scalar(Z, &Bin[i * 16]);
+
+		/* 4: Y_i <-- X */
+		/* 6: B' <-- (Y_0, Y_2 ... Y_{2r-2}, Y_1, Y_3 ... Y_{2r-1}) */
+		memcpy(&Bout[(i / 2 + (i & 1) * r) * 16], Z, 64);
+	}
+}
+
+static void
+smix_scalar(uint8_t * B, size_t r, uint64_t N, void * V, void * XY)
+{
+	smix_words(B, r, N, V, XY, blockmix_scalar, blkxor_scalar);
+}
+
+/* SSE2 -------------------------------------------------------------- */
+
+#ifdef HAVE_SSE2
+static void
+blkxor_sse2(uint32_t * dest, const uint32_t * src, size_t words)
+{
+	__m128i * D = (__m128i *)dest;
+	const __m128i * S = (const __m128i *)src;
+	size_t i;
+
+	for (i = 0; i < words / 4; i++) {
+		_mm_storeu_si128(&D[i], _mm_xor_si128(_mm_loadu_si128(&D[i]),
+		    _mm_loadu_si128(&S[i])));
+	}
+}
+
+#define ROTL_SSE2(T, b) \
+	_mm_xor_si128(_mm_slli_epi32(T, b), _mm_srli_epi32(T, 32 - (b)))
+
+static void
+blockmix_sse2(const uint32_t * Bin, uint32_t * Bout, uint32_t * Z, size_t r)
+{
+	const __m128i * in = (const __m128i *)Bin;
+	__m128i * out = (__m128i *)Bout;
+	__m128i X0, X1, X2, X3, Y0, Y1, Y2, Y3, T;
+	size_t i, j, o;
+
+	(void)Z;
+
+	/* 1: X <-- B_{2r - 1} */
+	X0 = _mm_loadu_si128(&in[8 * r - 4]);
+	X1 = _mm_loadu_si128(&in[8 * r - 3]);
+	X2 = _mm_loadu_si128(&in[8 * r - 2]);
+	X3 = _mm_loadu_si128(&in[8 * r - 1]);
+
+	/* 2: for i = 0 to 2r - 1 do */
+	for (i = 0; i < 2 * r; i++) {
+		/* 3: X <-- H(X \xor B_i) */
+		Y0 = X0 = _mm_xor_si128(X0, _mm_loadu_si128(&in[i * 4 + 0]));
+		Y1 = X1 = _mm_xor_si128(X1, _mm_loadu_si128(&in[i * 4 + 1]));
+		Y2 = X2 = _mm_xor_si128(X2, _mm_loadu_si128(&in[i * 4 + 2]));
+		Y3 = X3 = _mm_xor_si128(X3, _mm_loadu_si128(&in[i * 4 + 3]));
+		for (j = 0; j < 8; j += 2) {
+			/* Operate on "columns". */
+			T = _mm_add_epi32(X0, X3);
+			X1 = _mm_xor_si128(X1, ROTL_SSE2(T, 7));
+			T = _mm_add_epi32(X1, X0);
+			X2 = _mm_xor_si128(X2, ROTL_SSE2(T, 9));
+			T = _mm_add_epi32(X2, X1);
+			X3 = _mm_xor_si128(X3, ROTL_SSE2(T, 13));
+			T = _mm_add_epi32(X3, X2);
+			X0 = _mm_xor_si128(X0, ROTL_SSE2(T, 18));
+
+			/* Rearrange data. */
+			X1 = _mm_shuffle_epi32(X1, 0x93);
+			X2 = _mm_shuffle_epi32(X2, 0x4E);
+			X3 = _mm_shuffle_epi32(X3, 0x39);
+
+			/* Operate on "rows". */
+			T = _mm_add_epi32(X0, X1);
+			X3 = _mm_xor_si128(X3, ROTL_SSE2(T, 7));
+			T = _mm_add_epi32(X3, X0);
+			X2 = _mm_xor_si128(X2, ROTL_SSE2(T, 9));
+			T = _mm_add_epi32(X2, X3);
+			X1 = _mm_xor_si128(X1, ROTL_SSE2(T, 13));
+			T = _mm_add_epi32(X1, X2);
+			X0 = _mm_xor_si128(X0, ROTL_SSE2(T, 18));
+
+			/* Rearrange data. */
+			X1 = _mm_shuffle_epi32(X1, 0x39);
+			X2 = _mm_shuffle_epi32(X2, 0x4E);
+			X3 = _mm_shuffle_epi32(X3, 0x93);
+		}
+		X0 = _mm_add_epi32(X0, Y0);
+		X1 = _mm_add_epi32(X1, Y1);
+		X2 = _mm_add_epi32(X2, Y2);
+		X3 = _mm_add_epi32(X3, Y3);
+
+		/* 4: Y_i <-- X */
+		/* 6: B' <-- (Y_0, Y_2 ... Y_{2r-2}, Y_1, Y_3 ... Y_{2r-1}) */
+		o = (i / 2 + (i & 1) * r) * 4;
+		_mm_storeu_si128(&out[o + 0], X0);
+		_mm_storeu_si128(&out[o + 1], X1);
+		_mm_storeu_si128(&out[o + 2], X2);
+		_mm_storeu_si128(&out[o + 3], X3);
+	}
+}
+
+static void
+smix_sse2(uint8_t * B, size_t r, uint64_t N, void * V, void * XY)
+{
+	smix_words(B, r, N, V, XY, blockmix_sse2, blkxor_sse2);
+}
+#endif
+
+/* NEON -------------------------------------------------------------- */
+
+#ifdef HAVE_NEON
+static void
+blkxor_neon(uint32_t * dest, const uint32_t * src, size_t words)
+{
+	size_t i;
+
+	for (i = 0; i < words; i += 4)
+		vst1q_u32(&dest[i], veorq_u32(vld1q_u32(&dest[i]),
+		    vld1q_u32(&src[i])));
+}
+
+#define ROTL_NEON(T, b) vsriq_n_u32(vshlq_n_u32(T, b), T, 32 - (b))
+
+static void
+blockmix_neon(const uint32_t * Bin, uint32_t * Bout, uint32_t * Z, size_t r)
+{
+	uint32x4_t X0, X1, X2, X3, Y0, Y1, Y2, Y3, T;
+	size_t i, j, o;
+
+	(void)Z;
+
+	/* 1: X <-- B_{2r - 1} */
+	X0 = vld1q_u32(&Bin[(2 * r - 1) * 16 + 0]);
+	X1 = vld1q_u32(&Bin[(2 * r - 1) * 16 + 4]);
+	X2 = vld1q_u32(&Bin[(2 * r - 1) * 16 + 8]);
+	X3 = vld1q_u32(&Bin[(2 * r - 1) * 16 + 12]);
+
+	/* 2: for i = 0 to 2r - 1 do */
+	for (i = 0; i < 2 * r; i++) {
+		/* 3: X <-- H(X \xor B_i) */
+		Y0 = X0 = veorq_u32(X0, vld1q_u32(&Bin[i * 16 + 0]));
+		Y1 = X1 = veorq_u32(X1, vld1q_u32(&Bin[i * 16 + 4]));
+		Y2 = X2 = veorq_u32(X2, vld1q_u32(&Bin[i * 16 + 8]));
+		Y3 = X3 = veorq_u32(X3, vld1q_u32(&Bin[i * 16 + 12]));
+		for (j = 0; j < 8; j += 2) {
+			/* Operate on "columns". */
+			T = vaddq_u32(X0, X3);
+			X1 = veorq_u32(X1, ROTL_NEON(T, 7));
+			T = vaddq_u32(X1, X0);
+			X2 = veorq_u32(X2, ROTL_NEON(T, 9));
+			T = vaddq_u32(X2, X1);
+			X3 = veorq_u32(X3, ROTL_NEON(T, 13));
+			T = vaddq_u32(X3, X2);
+			X0 = veorq_u32(X0, ROTL_NEON(T, 18));
+
+			/* Rearrange data. */
+			X1 = vextq_u32(X1, X1, 3);
+			X2 = vextq_u32(X2, X2, 2);
+			X3 = vextq_u32(X3, X3, 1);
+
+			/* Operate on "rows". */
+			T = vaddq_u32(X0, X1);
+			X3 = veorq_u32(X3, ROTL_NEON(T, 7));
+			T = vaddq_u32(X3, X0);
+			X2 = veorq_u32(X2, ROTL_NEON(T, 9));
+			T = vaddq_u32(X2, X3);
+			X1 = veorq_u32(X1, ROTL_NEON(T, 13));
+			T = vaddq_u32(X1, X2);
+			X0 = veorq_u32(X0, ROTL_NEON(T, 18));
+
+			/* Rearrange data. */
+			X1 = vextq_u32(X1, X1, 1);
+			X2 = vextq_u32(X2, X2, 2);
+			X3 = vextq_u32(X3, X3, 3);
+		}
+		X0 = vaddq_u32(X0, Y0);
+		X1 = vaddq_u32(X1, Y1);
+		X2 = vaddq_u32(X2, Y2);
+		X3 = vaddq_u32(X3, Y3);
+
+		/* 4: Y_i <-- X */
+		/* 6: B' <-- (Y_0, Y_2 ... Y_{2r-2}, Y_1, Y_3 ... Y_{2r-1}) */
+		o = (i / 2 + (i & 1) * r) * 16;
+		vst1q_u32(&Bout[o + 0], X0);
+		vst1q_u32(&Bout[o + 4], X1);
+		vst1q_u32(&Bout[o + 8], X2);
+		vst1q_u32(&Bout[o + 12], X3);
+	}
+}
+
+static void
+smix_neon(uint8_t * B, size_t r, uint64_t N, void * V, void * XY)
+{
+	smix_words(B, r, N, V, XY, blockmix_neon, blkxor_neon);
+}
+#endif
+
+/* Selection --------------------------------------------------------- */
+
+static const struct crypto_scrypt_kernel all_kernels[] = {
+#ifdef HAVE_NEON
+	{ "neon", smix_neon },
+#endif
+#ifdef HAVE_SSE2
+	{ "sse2", smix_sse2 },
+#endif
+	{ "scalar", smix_scalar },
+	{ "ref", crypto_scrypt_smix_ref }
+};
+
+#define KERNEL_COUNT (sizeof(all_kernels) / sizeof(all_kernels[0]))
+
+/*
+ * The usable list is built once, under pthread_once, which also publishes
+ * it to every thread that calls in later.  The selected kernel can change
+ * at any time, so it goes through release/acquire atomics instead.
+ */
+static struct crypto_scrypt_kernel usable_kernels[KERNEL_COUNT];
+static size_t usable_count;
+static pthread_once_t usable_once = PTHREAD_ONCE_INIT;
+static crypto_scrypt_smix_t * selected;
+
+/**
+ * cpu_supports(kernel):
+ * Return non-zero if this CPU can run the kernel.  Every 64-bit ARM and
+ * x86 CPU can run NEON or SSE2, but some old 32-bit ARM CPUs lack NEON.
+ */
+static int
+cpu_supports(const struct crypto_scrypt_kernel * kernel)
+{
+#ifdef NEED_NEON_CHECK
+	if (kernel->smix == smix_neon)
+		return ((getauxval(AT_HWCAP) & HWCAP_NEON_BIT) != 0);
+#endif
+	(void)kernel;
+	return (1);
+}
+
+/**
+ * find_usable_kernels(void):
+ * Fill in the usable kernel list, fastest first, and select the fastest.
+ */
+static void
+find_usable_kernels(void)
+{
+	size_t n = 0;
+	size_t i;
+
+	for (i = 0; i < KERNEL_COUNT; i++) {
+		if (cpu_supports(&all_kernels[i]))
+			usable_kernels[n++] = all_kernels[i];
+	}
+	usable_count = n;
+	__atomic_store_n(&selected, usable_kernels[0].smix, __ATOMIC_RELEASE);
+}
+
+const struct crypto_scrypt_kernel *
+crypto_scrypt_kernels(size_t * count)
+{
+
+	pthread_once(&usable_once, find_usable_kernels);
+	*count = usable_count;
+	return (usable_kernels);
+}
+
+int
+crypto_scrypt_set_kernel(const char * name)
+{
+	const struct crypto_scrypt_kernel * kernels;
+	size_t count;
+	size_t i;
+
+	kernels = crypto_scrypt_kernels(&count);
+	if (name == NULL) {
+		__atomic_store_n(&selected, kernels[0].smix, __ATOMIC_RELEASE);
+		return (0);
+	}
+	for (i = 0; i < count; i++) {
+		if (strcmp(kernels[i].name, name) == 0) {
+			__atomic_store_n(&selected, kernels[i].smix,
+			    __ATOMIC_RELEASE);
+			return (0);
+		}
+	}
+	return (-1);
+}
+
+crypto_scrypt_smix_t *
+crypto_scrypt_smix(void)
+{
+
+	pthread_once(&usable_once, find_usable_kernels);
+	return (__atomic_load_n(&selected, __ATOMIC_ACQUIRE));
+}
@@ -0,0 +1,54 @@
+#ifndef _CRYPTO_SCRYPT_SMIX_H_
+#define _CRYPTO_SCRYPT_SMIX_H_
+
+#include <stddef.h>
+#include <stdint.h>
+
+/**
+ * smix(B, r, N, V, XY):
+ * Compute B = SMix_r(B, N).  The input B must be 128r bytes in length; the
+ * temporary storage V must be 128rN bytes in length; the temporary storage
+ * XY must be CRYPTO_SCRYPT_XY_SIZE(r) bytes in length.  The value N must be
+ * a power of 2.
+ */
+typedef void crypto_scrypt_smix_t(uint8_t *, size_t, uint64_t, void *, void *);
+
+/* The scratch space every smix kernel needs, besides V. */
+#define CRYPTO_SCRYPT_XY_SIZE(r) (256 * (size_t)(r) + 64)
+
+struct crypto_scrypt_kernel {
+	const char * name;
+	crypto_scrypt_smix_t * smix;
+};
+
+/**
+ * crypto_scrypt_kernels(count):
+ * Return the smix kernels this CPU can run, fastest first, and store how
+ * many there are in count.  The last one is always the reference code.
+ * Safe to call from any thread.
+ */
+const struct crypto_scrypt_kernel * crypto_scrypt_kernels(size_t *);
+
+/**
+ * crypto_scrypt_smix_ref(B, r, N, V, XY):
+ * The reference smix from crypto_scrypt.c.
+ */
+crypto_scrypt_smix_t crypto_scrypt_smix_ref;
+
+/**
+ * crypto_scrypt_set_kernel(name):
+ * Make crypto_scrypt use the named kernel, or the fastest one if name is
+ * NULL.  This exists for tests and benchmarks.
+ *
+ * Return 0 on success; or -1 if this CPU cannot run that kernel.
+ */
+int crypto_scrypt_set_kernel(const char *);
+
+/**
+ * crypto_scrypt_smix():
+ * Return the smix kernel crypto_scrypt should use.  Safe to call from any
+ * thread.
+ */
+crypto_scrypt_smix_t * crypto_scrypt_smix(void);
+
+#endif /* !_CRYPTO_SCRYPT_SMIX_H_ */
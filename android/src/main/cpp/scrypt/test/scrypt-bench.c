@@ -0,0 +1,72 @@
+/*
+ * Times each smix kernel this CPU can run, using the parameters the core
+ * uses for login (N = 16384, r = 8, p = 1) unless others are given:
+ *
+ *     scrypt-bench [N r p [repeats]]
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+#include "crypto_scrypt.h"
+#include "crypto_scrypt_smix.h"
+
+static double
+now(void)
+{
+	struct timespec ts;
+
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (ts.tv_sec + ts.tv_nsec / 1e9);
+}
+
+int
+main(int argc, char ** argv)
+{
+	const struct crypto_scrypt_kernel * kernels;
+	uint64_t N = 16384;
+	uint32_t r = 8;
+	uint32_t p = 1;
+	int repeats = 5;
+	size_t count;
+	size_t k;
+	int i;
+	uint8_t out[32];
+	double reference = 0;
+
+	if (argc >= 4) {
+		N = strtoull(argv[1], NULL, 10);
+		r = strtoul(argv[2], NULL, 10);
+		p = strtoul(argv[3], NULL, 10);
+	}
+	if (argc >= 5)
+		repeats = atoi(argv[4]);
+	printf("N=%llu r=%u p=%u, best of %d\n", (unsigned long long)N, r, p,
+	    repeats);
+
+	/* The reference kernel comes last, so time the list backwards: */
+	kernels = crypto_scrypt_kernels(&count);
+	for (k = count; k-- > 0;) {
+		double best = 0;
+
+		crypto_scrypt_set_kernel(kernels[k].name);
+		for (i = 0; i < repeats; i++) {
+			double start = now();
+			double time;
+
+			if (crypto_scrypt((const uint8_t *)"password", 8,
+			    (const uint8_t *)"salt", 4, N, r, p, out, 32)) {
+				printf("%s: error\n", kernels[k].name);
+				return (1);
+			}
+			time = now() - start;
+			if (i == 0 || time < best)
+				best = time;
+		}
+		if (reference == 0)
+			reference = best;
+		printf("%-8s %8.1f ms  %4.2fx\n", kernels[k].name, best * 1000,
+		    reference / best);
+	}
+	return (0);
+}
@@ -0,0 +1,152 @@
+/*
+ * Checks every smix kernel this CPU can run against the test vectors from
+ * RFC 7914, plus the threaded entry point.  Exits non-zero on failure.
+ * The N = 2^17 vector matches what snrp.ts picks on fast devices, and comes
+ * from Python's hashlib.scrypt.
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "crypto_scrypt.h"
+#include "crypto_scrypt_smix.h"
+
+struct vector {
+	const char * passwd;
+	const char * salt;
+	uint64_t N;
+	uint32_t r;
+	uint32_t p;
+	const char * hex;
+};
+
+static const struct vector vectors[] = {
+	{ "", "", 16, 1, 1,
+	    "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+	    "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"
+	},
+	{ "password", "NaCl", 1024, 8, 16,
+	    "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+	    "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"
+	},
+	{ "pleaseletmein", "SodiumChloride", 16384, 8, 1,
+	    "7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+	    "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887"
+	},
+	{ "pleaseletmein", "SodiumChloride", 131072, 8, 1,
+	    "2f10fcda14532d6543334cd899776407ff0ae879c370372de5b4e39d4d2d21ed"
+	    "cd5d7f191f94407a6f2e8a2430a1258f2e653c55e40531318baafdda82c60cd4"
+	}
+};
+
+#define VECTOR_COUNT (sizeof(vectors) / sizeof(vectors[0]))
+
+static void
+tohex(const uint8_t * data, size_t size, char * out)
+{
+	size_t i;
+
+	for (i = 0; i < size; i++)
+		sprintf(&out[2 * i], "%02x", data[i]);
+}
+
+static int
+check(const char * label, const struct vector * v, const uint8_t out[64])
+{
+	char hex[129];
+
+	tohex(out, 64, hex);
+	if (strcmp(hex, v->hex) == 0)
+		return (0);
+	printf("FAIL %s N=%llu r=%u p=%u\n  got  %s\n  want %s\n", label,
+	    (unsigned long long)v->N, v->r, v->p, hex, v->hex);
+	return (1);
+}
+
+int
+main(void)
+{
+	const struct crypto_scrypt_kernel * kernels;
+	size_t count;
+	size_t i;
+	size_t k;
+	uint8_t out[64];
+	int failures = 0;
+
+	kernels = crypto_scrypt_kernels(&count);
+	for (k = 0; k < count; k++) {
+		crypto_scrypt_set_kernel(kernels[k].name);
+		for (i = 0; i < VECTOR_COUNT; i++) {
+			const struct vector * v = &vectors[i];
+
+			if (crypto_scrypt((const uint8_t *)v->passwd,
+			    strlen(v->passwd), (const uint8_t *)v->salt,
+			    strlen(v->salt), v->N, v->r, v->p, out, 64)) {
+				printf("FAIL %s: error\n", kernels[k].name);
+				failures++;
+				continue;
+			}
+			failures += check(kernels[k].name, v, out);
+		}
+		printf("%s: checked\n", kernels[k].name);
+	}
+
+	/* The threaded version must match too, with or without scratch: */
+	crypto_scrypt_set_kernel(NULL);
+	for (i = 0; i < VECTOR_COUNT; i++) {
+		const struct vector * v = &vectors[i];
+		uint32_t nthreads = 4;
+		size_t size;
+		void * scratch;
+
+		size = crypto_scrypt_threads_plan(v->N, v->r, v->p, &nthreads,
+		    0);
+		scratch = malloc(size);
+		for (k = 0; k < 2; k++) {
+			if (crypto_scrypt_threads((const uint8_t *)v->passwd,
+			    strlen(v->passwd), (const uint8_t *)v->salt,
+			    strlen(v->salt), v->N, v->r, v->p, out, 64, 4, 0,
+			    k ? scratch : NULL, k ? size : 0)) {
+				printf("FAIL threads: error\n");
+				failures++;
+				continue;
+			}
+			failures += check("threads", v, out);
+		}
+		free(scratch);
+	}
+	printf("threads: checked\n");
+
+	/*
+	 * A memory ceiling should lower the thread count, but never stop a lone
+	 * thread, including the old 128 MiB default with N = 2^17:
+	 */
+	for (i = 1; i < VECTOR_COUNT; i++) {
+		const struct vector * v = &vectors[i];
+		size_t ceilings[2] = { (size_t)1 << 20, (size_t)128 << 20 };
+
+		for (k = 0; k < 2; k++) {
+			uint32_t nthreads = 4;
+
+			if (crypto_scrypt_threads_plan(v->N, v->r, v->p, &nthreads,
+			    ceilings[k]) == 0 || (v->p > 1 && k == 0 &&
+			    nthreads != 1)) {
+				printf("FAIL ceiling plan: N=%llu\n",
+				    (unsigned long long)v->N);
+				failures++;
+			}
+			if (crypto_scrypt_threads((const uint8_t *)v->passwd,
+			    strlen(v->passwd), (const uint8_t *)v->salt,
+			    strlen(v->salt), v->N, v->r, v->p, out, 64, 4,
+			    ceilings[k], NULL, 0)) {
+				printf("FAIL ceiling: error\n");
+				failures++;
+				continue;
+			}
+			failures += check("ceiling", v, out);
+		}
+	}
+	printf("ceiling: checked\n");
+
+	return (failures != 0);
+}
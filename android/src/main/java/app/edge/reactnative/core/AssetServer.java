@@ -0,0 +1,295 @@
+package app.edge.reactnative.core;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Serves the bundled assets to the WebView.
+ *
+ * <p>Files stream straight out of the APK, without being copied into memory first. If the build
+ * ships a file only as a gzipped copy, such as `edge-core.js.gz`, requests for `edge-core.js` get
+ * that copy, inflated on the fly. Files requested more than once, as happens whenever the page
+ * reloads, go into a small byte-bounded cache that every WebView shares.
+ *
+ * <p>Every response carries the COOP/COEP headers needed for SharedArrayBuffer support, plus an
+ * ETag that changes whenever the app is updated.
+ */
+class AssetServer {
+  private static final String TAG = "EdgeCoreWebView";
+  private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+  private static final byte[] NOT_FOUND = "Not Found".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] EMPTY = new byte[0];
+
+  private static final Map<String, String> BASE_HEADERS = makeBaseHeaders();
+
+  // What we know about each path, including missing ones:
+  private static final Map<String, Asset> sAssets = new ConcurrentHashMap<>();
+
+  // Cached file contents, in least-recently-used order, guarded by the class lock:
+  private static final LinkedHashMap<String, Asset> sCache = new LinkedHashMap<>(16, 0.75f, true);
+  private static long sCacheBytes;
+
+  // Metrics, guarded by the class lock:
+  private static long sHits;
+  private static long sStreamed;
+  private static long sInflated;
+  private static long sNotModified;
+  private static long sNotFound;
+
+  private final AssetManager mAssets;
+  private final Map<String, String> mHeaders;
+  private final String mEtag;
+
+  private static class Asset {
+    // Null if the asset doesn't exist:
+    final @Nullable String file;
+    final boolean gzipped;
+
+    // Guarded by the class lock:
+    int requests;
+    @Nullable byte[] data;
+    boolean uncacheable;
+
+    Asset(@Nullable String file, boolean gzipped) {
+      this.file = file;
+      this.gzipped = gzipped;
+    }
+  }
+
+  public AssetServer(@NonNull Context context) {
+    mAssets = context.getAssets();
+    mEtag = "\"" + getInstallTag(context) + "\"";
+
+    // Every successful response shares this one map:
+    Map<String, String> headers = new HashMap<>(BASE_HEADERS);
+    headers.put("ETag", mEtag);
+    mHeaders = Collections.unmodifiableMap(headers);
+  }
+
+  /** Serves one asset, honoring `If-None-Match` if the request headers are available. */
+  public @NonNull WebResourceResponse serve(
+      @NonNull String path, @Nullable Map<String, String> requestHeaders) {
+    Asset asset = getAsset(path);
+    if (asset.file == null) {
+      Log.d(TAG, "File not found: " + path);
+      return notFound();
+    }
+
+    String mimeType = getMimeType(path);
+    if (mEtag.equals(getHeader(requestHeaders, "If-None-Match"))) {
+      synchronized (AssetServer.class) {
+        ++sNotModified;
+      }
+      return new WebResourceResponse(
+          mimeType, "UTF-8", 304, "Not Modified", mHeaders, new ByteArrayInputStream(EMPTY));
+    }
+
+    try {
+      InputStream body = openBody(path, asset);
+      Log.d(TAG, "Serving file: " + path);
+      return new WebResourceResponse(mimeType, "UTF-8", 200, "OK", mHeaders, body);
+    } catch (IOException e) {
+      Log.d(TAG, "File not readable: " + path);
+      return notFound();
+    }
+  }
+
+  /**
+   * Loads an asset into the cache ahead of time, so the first request for it is a hit.
+   *
+   * @return the asset's size, or -1 if it does not exist.
+   */
+  public long prefetch(@NonNull String path) throws IOException {
+    Asset asset = getAsset(path);
+    if (asset.file == null) return -1;
+    synchronized (AssetServer.class) {
+      if (asset.data != null) return asset.data.length;
+      if (asset.gzipped) ++sInflated;
+    }
+    byte[] data = load(asset);
+    put(path, asset, data);
+    return data.length;
+  }
+
+  /** Creates a 404 Not Found response. */
+  public @NonNull WebResourceResponse notFound() {
+    synchronized (AssetServer.class) {
+      ++sNotFound;
+    }
+    return new WebResourceResponse(
+        "text/plain", "UTF-8", 404, "Not Found", BASE_HEADERS, new ByteArrayInputStream(NOT_FOUND));
+  }
+
+  public static synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("cachedFiles", sCache.size());
+    out.put("cachedBytes", sCacheBytes);
+    out.put("limit", EdgeCoreConfig.sAssetCacheBytes);
+    out.put("hits", sHits);
+    out.put("streamed", sStreamed);
+    out.put("inflated", sInflated);
+    out.put("notModified", sNotModified);
+    out.put("notFound", sNotFound);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /** Finds the file behind a path, checking for a gzipped copy if the file itself is missing. */
+  private @NonNull Asset getAsset(@NonNull String path) {
+    Asset asset = sAssets.get(path);
+    if (asset != null) return asset;
+
+    if (exists(path)) asset = new Asset(path, false);
+    else if (exists(path + ".gz")) asset = new Asset(path + ".gz", true);
+    else asset = new Asset(null, false);
+    sAssets.put(path, asset);
+    return asset;
+  }
+
+  private boolean exists(@NonNull String file) {
+    try {
+      mAssets.open(file).close();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the asset's contents. The first request streams from the APK, while repeat requests
+   * load the file into the cache, if it fits.
+   */
+  private @NonNull InputStream openBody(@NonNull String path, @NonNull Asset asset)
+      throws IOException {
+    boolean cache;
+    synchronized (AssetServer.class) {
+      if (asset.data != null) {
+        sCache.get(path); // Bump it in the LRU order
+        ++sHits;
+        return new ByteArrayInputStream(asset.data);
+      }
+      ++asset.requests;
+      cache = asset.requests > 1 && !asset.uncacheable && EdgeCoreConfig.sAssetCacheBytes > 0;
+      if (asset.gzipped) ++sInflated;
+      if (!cache) ++sStreamed;
+    }
+
+    if (!cache) return open(asset);
+    byte[] data = load(asset);
+    put(path, asset, data);
+    return new ByteArrayInputStream(data);
+  }
+
+  private @NonNull InputStream open(@NonNull Asset asset) throws IOException {
+    InputStream in = mAssets.open(asset.file);
+    return asset.gzipped ? new GZIPInputStream(in, INFLATE_BUFFER_SIZE) : in;
+  }
+
+  /** Reads a whole asset into an array of exactly the right size. */
+  private @NonNull byte[] load(@NonNull Asset asset) throws IOException {
+    StreamStringReader reader = new StreamStringReader(null);
+    try (InputStream in = open(asset)) {
+      reader.read(in, asset.gzipped ? -1 : getLength(asset.file));
+    }
+    byte[] data = reader.getBuffer();
+    return data.length == reader.size() ? data : Arrays.copyOf(data, reader.size());
+  }
+
+  /** Returns the size of an asset stored uncompressed in the APK, or -1 if we can't tell. */
+  private int getLength(@NonNull String file) {
+    try (AssetFileDescriptor fd = mAssets.openFd(file)) {
+      long length = fd.getLength();
+      return length >= 0 && length <= Integer.MAX_VALUE ? (int) length : -1;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static synchronized void put(
+      @NonNull String path, @NonNull Asset asset, @NonNull byte[] data) {
+    long limit = EdgeCoreConfig.sAssetCacheBytes;
+    if (data.length > limit) {
+      // Don't read it into memory again:
+      asset.uncacheable = true;
+      return;
+    }
+    if (asset.data != null) return;
+
+    for (Iterator<Asset> it = sCache.values().iterator(); it.hasNext(); ) {
+      if (sCacheBytes + data.length <= limit) break;
+      Asset old = it.next();
+      sCacheBytes -= old.data.length;
+      old.data = null;
+      it.remove();
+    }
+    asset.data = data;
+    sCacheBytes += data.length;
+    sCache.put(path, asset);
+  }
+
+  private static @Nullable String getHeader(
+      @Nullable Map<String, String> headers, @NonNull String name) {
+    if (headers == null) return null;
+    for (Map.Entry<String, String> item : headers.entrySet()) {
+      if (name.equalsIgnoreCase(item.getKey())) return item.getValue();
+    }
+    return null;
+  }
+
+  // We only serve HTML, JS, and WASM files
+  private static @NonNull String getMimeType(@NonNull String path) {
+    String lowerPath = path.toLowerCase();
+    if (lowerPath.endsWith(".html") || lowerPath.endsWith(".htm")) {
+      return "text/html";
+    } else if (lowerPath.endsWith(".js")) {
+      return "application/javascript";
+    } else if (lowerPath.endsWith(".wasm")) {
+      return "application/wasm";
+    }
+    return "application/octet-stream";
+  }
+
+  /** Changes whenever the app is installed or updated, along with its assets. */
+  private static @NonNull String getInstallTag(@NonNull Context context) {
+    try {
+      PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      return info.versionCode + "-" + Long.toHexString(info.lastUpdateTime);
+    } catch (PackageManager.NameNotFoundException e) {
+      return "unknown";
+    }
+  }
+
+  private static @NonNull Map<String, String> makeBaseHeaders() {
+    Map<String, String> headers = new HashMap<>();
+    // CORS headers to allow cross-origin requests (needed for debug mode with localhost)
+    headers.put("Access-Control-Allow-Origin", "*");
+    headers.put("Cross-Origin-Resource-Policy", "cross-origin");
+    // Cross-origin isolation headers required for SharedArrayBuffer (needed by mixFetch web
+    // workers)
+    headers.put("Cross-Origin-Opener-Policy", "same-origin");
+    headers.put("Cross-Origin-Embedder-Policy", "require-corp");
+    return Collections.unmodifiableMap(headers);
+  }
+}
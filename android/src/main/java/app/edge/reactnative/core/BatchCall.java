@@ -0,0 +1,85 @@
+package app.edge.reactnative.core;
+
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Collects the outcomes of several sub-calls, then resolves a single parent call with an array of
+ * `{ value }` or `{ error }` objects, in the same order as the sub-calls.
+ */
+class BatchCall {
+  private final PendingCall mParent;
+  private final JSONObject[] mResults;
+  private final AtomicInteger mRemaining;
+
+  public BatchCall(int size, @NonNull PendingCall parent) {
+    mParent = parent;
+    mResults = new JSONObject[size];
+    mRemaining = new AtomicInteger(size);
+    if (size == 0) parent.resolve(new JSONArray());
+  }
+
+  /** Returns the promise for the sub-call at the given index. */
+  public @NonNull PendingCall item(int index) {
+    return new Item(index);
+  }
+
+  private void finish(int index, @NonNull JSONObject result) {
+    synchronized (mResults) {
+      mResults[index] = result;
+    }
+    if (mRemaining.decrementAndGet() != 0) return;
+
+    JSONArray out = new JSONArray();
+    synchronized (mResults) {
+      for (JSONObject item : mResults) out.put(item);
+    }
+    mParent.resolve(out);
+  }
+
+  private class Item implements PendingCall {
+    private final int mIndex;
+    private final AtomicBoolean mDone = new AtomicBoolean(false);
+
+    Item(int index) {
+      mIndex = index;
+    }
+
+    @Override
+    public void resolve(Object value) {
+      if (mDone.getAndSet(true)) return;
+      JSONObject result = new JSONObject();
+      try {
+        if (value instanceof JsonBytes.Writable) {
+          value = ((JsonBytes.Writable) value).toJson();
+        }
+
+        // Binary data cannot go inside JSON as-is:
+        if (value instanceof byte[]) {
+          value = Base64.encodeToString((byte[]) value, Base64.NO_WRAP);
+        }
+        result.put("value", value);
+      } catch (JSONException error) {
+        // Only happens for non-finite numbers, which we never produce.
+      }
+      finish(mIndex, result);
+    }
+
+    @Override
+    public void reject(String message) {
+      if (mDone.getAndSet(true)) return;
+      JSONObject result = new JSONObject();
+      try {
+        result.put("error", message != null ? message : "Unknown error");
+      } catch (JSONException error) {
+        // Cannot happen with a string value.
+      }
+      finish(mIndex, result);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package app.edge.reactnative.core;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.webkit.WebMessageCompat;
+import androidx.webkit.WebMessagePortCompat;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Carries native calls over a WebMessagePort, so binary arguments and results can travel as raw
+ * ArrayBuffers instead of base64 text inside JSON.
+ *
+ * <p>Once the page loads, we post it one end of a message channel. JavaScript sends calls with
+ * binary data through the port, and we send their results back the same way. Other calls, and
+ * WebViews that cannot pass ArrayBuffers, keep using the `edgeCore.call` interface.
+ *
+ * <p>A call frame holds a call id, the method name, the JSON argument array, and any binary
+ * arguments, each tagged with its position in the argument array. A reply frame holds a kind byte,
+ * the call id, and either JSON text, raw bytes, or an error message. Integers are big-endian.
+ */
+class BinaryChannel {
+  private static final byte REPLY_JSON = 0;
+  private static final byte REPLY_BYTES = 1;
+  private static final byte REPLY_ERROR = 2;
+
+  private final EdgeCoreWebView mWebView;
+  private final EdgeNative mNative;
+  private final HandlerThread mThread = new HandlerThread("edge-core-port");
+  private final WebMessagePortCompat mPort;
+  private volatile boolean mClosed;
+
+  /** Returns true if this WebView can pass ArrayBuffers over message ports. */
+  public static boolean isSupported() {
+    return WebViewFeature.isFeatureSupported(WebViewFeature.CREATE_WEB_MESSAGE_CHANNEL)
+        && WebViewFeature.isFeatureSupported(WebViewFeature.POST_WEB_MESSAGE)
+        && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_POST_MESSAGE)
+        && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_SET_MESSAGE_CALLBACK)
+        && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_CLOSE)
+        && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER);
+  }
+
+  /** Creates a channel and offers one end to the page. Must run on the UI thread. */
+  public BinaryChannel(
+      @NonNull EdgeCoreWebView webView, @NonNull EdgeNative nativeIo, @NonNull Uri origin) {
+    mWebView = webView;
+    mNative = nativeIo;
+    mThread.start();
+
+    WebMessagePortCompat[] ports = WebViewCompat.createWebMessageChannel(webView);
+    mPort = ports[0];
+    mPort.setWebMessageCallback(
+        new Handler(mThread.getLooper()),
+        new WebMessagePortCompat.WebMessageCallbackCompat() {
+          @Override
+          public void onMessage(
+              @NonNull WebMessagePortCompat port, @Nullable WebMessageCompat message) {
+            handleMessage(message);
+          }
+        });
+    WebViewCompat.postWebMessage(
+        webView,
+        new WebMessageCompat("edgeCoreBinary", new WebMessagePortCompat[] {ports[1]}),
+        origin);
+  }
+
+  /** Stops using the channel. Must run on the UI thread. */
+  public void close() {
+    mClosed = true;
+    mPort.close();
+    mThread.quit();
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private void handleMessage(@Nullable WebMessageCompat message) {
+    if (message == null || message.getType() != WebMessageCompat.TYPE_ARRAY_BUFFER) return;
+    ByteBuffer frame = ByteBuffer.wrap(message.getArrayBuffer());
+
+    int id = 0;
+    try {
+      id = frame.getInt();
+      String name = readString(frame, frame.getShort() & 0xffff);
+      JSONArray args = new JSONArray(readString(frame, frame.getInt()));
+      int blobCount = frame.get() & 0xff;
+      for (int i = 0; i < blobCount; ++i) {
+        int index = frame.get() & 0xff;
+        byte[] blob = new byte[frame.getInt()];
+        frame.get(blob);
+        args.put(index, blob);
+      }
+      mNative.call(name, args, new PortPromise(id));
+    } catch (BufferUnderflowException | JSONException error) {
+      new PortPromise(id).reject("Malformed binary call");
+    }
+  }
+
+  private static @NonNull String readString(@NonNull ByteBuffer frame, int length) {
+    byte[] data = new byte[length];
+    frame.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  private class PortPromise implements PendingCall {
+    private final int mId;
+
+    PortPromise(int id) {
+      mId = id;
+    }
+
+    @Override
+    public void resolve(Object value) {
+      if (value instanceof JsonBytes.Writable) {
+        // Leave room for the frame header, so the JSON never gets copied:
+        JsonBytes.Writable writable = (JsonBytes.Writable) value;
+        JsonBytes out = new JsonBytes(writable.estimateSize() + 5, 5);
+        writable.writeJson(out);
+        byte[] frame = out.getBuffer();
+        if (frame.length != out.size()) frame = Arrays.copyOf(frame, out.size());
+        ByteBuffer.wrap(frame).put(REPLY_JSON).putInt(mId);
+        post(frame);
+      } else if (value instanceof byte[]) {
+        send(REPLY_BYTES, (byte[]) value);
+      } else {
+        JSONArray array = new JSONArray();
+        array.put(value);
+        String out = array.toString();
+        send(REPLY_JSON, out.substring(1, out.length() - 1).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    @Override
+    public void reject(String message) {
+      String text = message != null ? message : "Unknown error";
+      send(REPLY_ERROR, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(byte kind, @NonNull byte[] payload) {
+      ByteBuffer frame = ByteBuffer.allocate(5 + payload.length);
+      frame.put(kind).putInt(mId).put(payload);
+      post(frame.array());
+    }
+
+    private void post(@NonNull byte[] frame) {
+      final WebMessageCompat message = new WebMessageCompat(frame);
+      mWebView.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (!mClosed) mPort.postMessage(message);
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Metrics for native bridge calls, shared by every WebView.
+ *
+ * <p>Each method gets call and error counts, time spent waiting for a worker, time spent running,
+ * and payload sizes. Fetches also get connection timings for each host. Times land in fixed
+ * histogram buckets, so recording one costs a few additions under a lock, and the percentiles
+ * come out as bucket bounds.
+ *
+ * <p>Payload sizes count strings, binary data, and fetch bodies. Structured results are not
+ * serialized just to measure them.
+ */
+class CallStats {
+  // Histogram bucket upper bounds, in milliseconds:
+  private static final double[] BUCKET_LIMITS = {
+    0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+    Double.POSITIVE_INFINITY
+  };
+
+  // Busy apps talk to many servers, so only keep the most recent ones:
+  private static final int MAX_HOSTS = 64;
+
+  // Guarded by the class lock:
+  private static final Map<String, MethodStats> sMethods = new HashMap<>();
+  private static final LinkedHashMap<String, HostStats> sHosts =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The promise for one tracked call, which records its outcome on the way through. */
+  static class Call implements PendingCall {
+    private final String mName;
+    private final PendingCall mPromise;
+    private final long mQueuedAt = System.nanoTime();
+    private volatile long mStartedAt;
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    private Call(@NonNull String name, @NonNull PendingCall promise) {
+      mName = name;
+      mPromise = promise;
+    }
+
+    /** Marks the point where the call leaves its queue and starts running. */
+    public void started() {
+      if (mStartedAt == 0) mStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void resolve(Object value) {
+      if (!mDone.getAndSet(true)) finish(sizeOf(value), false);
+      mPromise.resolve(value);
+    }
+
+    @Override
+    public void reject(String message) {
+      if (!mDone.getAndSet(true)) finish(0, true);
+      mPromise.reject(message);
+    }
+
+    private void finish(int resultBytes, boolean failed) {
+      long now = System.nanoTime();
+      long startedAt = mStartedAt;
+      synchronized (CallStats.class) {
+        MethodStats stats = getMethod(mName);
+        if (failed) ++stats.errors;
+        stats.resultBytes += resultBytes;
+
+        // Calls rejected before they ran, such as from a full queue, have no timings:
+        if (startedAt == 0) return;
+        stats.queueWait.add((startedAt - mQueuedAt) / 1e6);
+        stats.exec.add((now - startedAt) / 1e6);
+      }
+    }
+  }
+
+  /**
+   * Starts tracking a call as it enters a queue. Calls that are already tracked, such as restarted
+   * fetches, pass through as-is.
+   */
+  public static @NonNull Call start(
+      @NonNull String name, int argBytes, @NonNull PendingCall promise) {
+    if (promise instanceof Call) return (Call) promise;
+    synchronized (CallStats.class) {
+      MethodStats stats = getMethod(name);
+      ++stats.calls;
+      stats.argBytes += argBytes;
+    }
+    return new Call(name, promise);
+  }
+
+  /** Records the phases of a fetch that got a response. */
+  public static synchronized void recordFetch(
+      @NonNull String host, double connectMs, double ttfbMs, double bodyMs, long bodyBytes) {
+    HostStats stats = getHost(host);
+    ++stats.requests;
+    stats.connect.add(connectMs);
+    stats.ttfb.add(ttfbMs);
+    if (bodyMs >= 0) {
+      stats.body.add(bodyMs);
+      stats.bodyBytes += bodyBytes;
+    }
+  }
+
+  public static synchronized void recordFetchError(@NonNull String host) {
+    HostStats stats = getHost(host);
+    ++stats.requests;
+    ++stats.errors;
+  }
+
+  /** Records a TLS handshake on a new connection. */
+  public static synchronized void recordHandshake(
+      @NonNull String host, double ms, boolean resumed) {
+    HostStats stats = getHost(host);
+    stats.tls.add(ms);
+    if (resumed) ++stats.resumedHandshakes;
+  }
+
+  /** Returns the rough size of a call's arguments or result, without serializing anything. */
+  public static int sizeOf(@Nullable Object value) {
+    if (value instanceof byte[]) return ((byte[]) value).length;
+    if (value instanceof String) return ((String) value).length();
+    if (value instanceof JsonBytes.Writable) return ((JsonBytes.Writable) value).estimateSize();
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      int out = 0;
+      for (int i = 0; i < array.length(); ++i) {
+        Object item = array.opt(i);
+        if (item instanceof byte[] || item instanceof String) out += sizeOf(item);
+      }
+      return out;
+    }
+    return 0;
+  }
+
+  public static synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject methods = new JSONObject();
+    for (Map.Entry<String, MethodStats> item : sMethods.entrySet()) {
+      MethodStats stats = item.getValue();
+      JSONObject out = new JSONObject();
+      out.put("calls", stats.calls);
+      out.put("errors", stats.errors);
+      out.put("argBytes", stats.argBytes);
+      out.put("resultBytes", stats.resultBytes);
+      out.put("queueWaitMs", stats.queueWait.toJson());
+      out.put("execMs", stats.exec.toJson());
+      methods.put(item.getKey(), out);
+    }
+
+    JSONObject hosts = new JSONObject();
+    for (Map.Entry<String, HostStats> item : sHosts.entrySet()) {
+      HostStats stats = item.getValue();
+      JSONObject out = new JSONObject();
+      out.put("requests", stats.requests);
+      out.put("errors", stats.errors);
+      out.put("connectMs", stats.connect.toJson());
+      out.put("tlsMs", stats.tls.toJson());
+      out.put("resumedHandshakes", stats.resumedHandshakes);
+      out.put("ttfbMs", stats.ttfb.toJson());
+      out.put("bodyMs", stats.body.toJson());
+      out.put("bodyBytes", stats.bodyBytes);
+      hosts.put(item.getKey(), out);
+    }
+
+    JSONObject out = new JSONObject();
+    out.put("methods", methods);
+    out.put("hosts", hosts);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private static class Histogram {
+    final long[] buckets = new long[BUCKET_LIMITS.length];
+    long count;
+    double totalMs;
+    double maxMs;
+
+    void add(double ms) {
+      ++count;
+      totalMs += ms;
+      if (ms > maxMs) maxMs = ms;
+      for (int i = 0; i < BUCKET_LIMITS.length; ++i) {
+        if (ms <= BUCKET_LIMITS[i]) {
+          ++buckets[i];
+          break;
+        }
+      }
+    }
+
+    /** Returns the upper bound of the bucket holding the given fraction of samples. */
+    double percentile(double fraction) {
+      long rank = (long) Math.ceil(fraction * count);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; ++i) {
+        seen += buckets[i];
+        if (seen >= rank) return Math.min(BUCKET_LIMITS[i], maxMs);
+      }
+      return maxMs;
+    }
+
+    @NonNull
+    JSONObject toJson() throws JSONException {
+      JSONObject out = new JSONObject();
+      out.put("count", count);
+      out.put("mean", count > 0 ? totalMs / count : 0);
+      out.put("p50", percentile(0.5));
+      out.put("p95", percentile(0.95));
+      out.put("p99", percentile(0.99));
+      out.put("max", maxMs);
+      return out;
+    }
+  }
+
+  private static class MethodStats {
+    long calls;
+    long errors;
+    long argBytes;
+    long resultBytes;
+    final Histogram queueWait = new Histogram();
+    final Histogram exec = new Histogram();
+  }
+
+  private static class HostStats {
+    long requests;
+    long errors;
+    long resumedHandshakes;
+    long bodyBytes;
+    final Histogram connect = new Histogram();
+    final Histogram tls = new Histogram();
+    final Histogram ttfb = new Histogram();
+    final Histogram body = new Histogram();
+  }
+
+  private static @NonNull MethodStats getMethod(@NonNull String name) {
+    MethodStats stats = sMethods.get(name);
+    if (stats == null) {
+      stats = new MethodStats();
+      sMethods.put(name, stats);
+    }
+    return stats;
+  }
+
+  private static @NonNull HostStats getHost(@NonNull String host) {
+    HostStats stats = sHosts.get(host);
+    if (stats == null) {
+      stats = new HostStats();
+      sHosts.put(host, stats);
+      Iterator<String> it = sHosts.keySet().iterator();
+      while (sHosts.size() > MAX_HOSTS) {
+        it.next();
+        it.remove();
+      }
+    }
+    return stats;
+  }
+}
@@ -1,37 +1,86 @@
 package app.edge.reactnative.core;
 
 import android.util.AtomicFile;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 public class Disklet {
+  // Every write goes through this file, which lives at the top of the disklet:
+  private static final String JOURNAL_NAME = ".disklet-journal";
+  private static final int JOURNAL_MAGIC = 0x45444a32; // "EDJ2"
+
+  // Once the journal grows this large, we make the files durable and start a new one:
+  private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+
   private final File mBase;
+  private final File mJournal;
+  private final DiskletCache mCache = new DiskletCache();
+  private final Object mJournalLock = new Object();
+  private volatile boolean mRecovered;
+
+  // Guarded by mJournalLock:
+  private long mJournalLength;
+  private final Set<String> mDirty = new HashSet<>();
 
   public Disklet(File base) {
     this.mBase = base;
+    this.mJournal = new File(base, JOURNAL_NAME);
   }
 
-  public void delete(String path) {
-    File file = new File(mBase, path);
-    deepDelete(file);
+  public void delete(String path) throws IOException {
+    // Nothing to journal:
+    recover();
+    if (!new File(mBase, path).exists()) return;
+
+    writeBatch(Collections.singletonList(new Change(path, null)));
   }
 
   public byte[] getData(String path) throws IOException {
+    recover();
+    byte[] cached = mCache.get(path);
+    if (cached != null) return cached;
+
+    long generation = mCache.getGeneration();
     AtomicFile file = new AtomicFile(new File(mBase, path));
-    return file.readFully();
+    byte[] data = file.readFully();
+    mCache.putIfUnchanged(path, data, generation);
+    return data;
   }
 
   public String getText(String path) throws IOException {
-    AtomicFile file = new AtomicFile(new File(mBase, path));
-    byte[] data = file.readFully();
+    byte[] data = getData(path);
     return new String(data, StandardCharsets.UTF_8);
   }
 
-  public Map<String, String> list(String path) {
+  /** Reports cache hits, misses, and evictions. */
+  public JSONObject getCacheStats() throws JSONException {
+    return mCache.getStats();
+  }
+
+  public Map<String, String> list(String path) throws IOException {
+    recover();
     File file = new File(mBase, path);
     try {
       HashMap<String, String> out = new HashMap<String, String>();
@@ -40,6 +89,7 @@ public class Disklet {
           String prefix = "".equals(path) ? path : path + "/";
           File[] files = file.listFiles();
           for (File child : files) {
+            if (isJournal(prefix + child.getName())) continue;
             out.put(prefix + child.getName(), child.isDirectory() ? "folder" : "file");
           }
         } else {
@@ -52,38 +102,384 @@ public class Disklet {
     }
   }
 
+  /**
+   * Lists every file and folder beneath a path, in one pass.
+   *
+   * <p>Only paths matching the filter appear in the output, but the walk still descends into
+   * folders that don't match. The listing stops once it holds `filter.maxEntries` paths.
+   */
+  public TreeResult<String> listRecursive(String path, TreeFilter filter) throws IOException {
+    recover();
+    TreeResult<String> out = new TreeResult<>();
+    walk(
+        path,
+        new TreeVisitor() {
+          @Override
+          public boolean visit(String childPath, File child, boolean isFolder) {
+            if (!filter.matches(childPath)) return true;
+            if (out.entries.size() >= filter.maxEntries) return false;
+            out.entries.put(childPath, isFolder ? "folder" : "file");
+            return true;
+          }
+        },
+        out);
+    return out;
+  }
+
+  /**
+   * Reads the text of every file beneath a path, in one pass.
+   *
+   * <p>Only files matching the filter appear in the output. The walk stops before the total text
+   * would exceed `filter.maxBytes`, or once it holds `filter.maxEntries` files.
+   */
+  public TreeResult<String> readTree(String path, TreeFilter filter) throws IOException {
+    recover();
+    TreeResult<String> out = new TreeResult<>();
+    final long[] bytes = {0};
+    final IOException[] failure = {null};
+    walk(
+        path,
+        new TreeVisitor() {
+          @Override
+          public boolean visit(String childPath, File child, boolean isFolder) {
+            if (isFolder || !filter.matches(childPath)) return true;
+            if (out.entries.size() >= filter.maxEntries) return false;
+
+            // Use cached data if we have it, but don't flood the cache:
+            byte[] data = mCache.peek(childPath);
+            try {
+              if (data == null) data = new AtomicFile(child).readFully();
+            } catch (IOException e) {
+              failure[0] = e;
+              return false;
+            }
+            if (bytes[0] + data.length > filter.maxBytes) return false;
+            bytes[0] += data.length;
+            out.entries.put(childPath, new String(data, StandardCharsets.UTF_8));
+            return true;
+          }
+        },
+        out);
+    if (failure[0] != null) throw failure[0];
+    return out;
+  }
+
   public void setData(String path, byte[] data) throws IOException {
-    File file = new File(mBase, path);
-    writeFile(file, data);
+    writeBatch(Collections.singletonList(new Change(path, data)));
   }
 
   public void setText(String path, String text) throws IOException {
-    File file = new File(mBase, path);
     byte[] data = text.getBytes(StandardCharsets.UTF_8);
-    writeFile(file, data);
+    writeBatch(Collections.singletonList(new Change(path, data)));
+  }
+
+  /**
+   * Writes and deletes several files as a single transaction, which costs one disk sync no matter
+   * how many files it touches.
+   *
+   * <p>The changes first go onto the end of a journal, which we sync to disk. Once the journal is
+   * durable, the batch has committed, and we move each file into place without syncing it. If we
+   * crash before the journal is complete, none of the changes happen, and if we crash after, the
+   * next disklet call replays the journal. Either way, the batch is never half-applied.
+   *
+   * <p>The journal keeps every batch until a checkpoint syncs the files they wrote, so replaying it
+   * always lands on the latest contents. Single-file writes and deletes go through the journal too,
+   * so a replay can never undo them.
+   *
+   * <p>Paths that could never be written, such as ones beneath an existing file, fail the batch
+   * before it commits. Once it commits, an I/O error only delays the batch, so this returns
+   * normally and the next disklet call finishes the job.
+   */
+  public void writeBatch(@NonNull List<Change> changes) throws IOException {
+    if (changes.isEmpty()) return;
+    recover();
+    checkChanges(changes);
+    synchronized (mJournalLock) {
+      appendJournal(changes);
+      try {
+        applyChanges(changes);
+        if (mJournalLength >= CHECKPOINT_BYTES) checkpoint();
+      } catch (IOException e) {
+        mRecovered = false;
+      }
+    }
+  }
+
+  /** One entry in a write batch. */
+  public static class Change {
+    public final String path;
+
+    /** The new file contents, or null to delete the path. */
+    public final @Nullable byte[] data;
+
+    public Change(@NonNull String path, @Nullable byte[] data) {
+      this.path = path;
+      this.data = data;
+    }
+  }
+
+  /** Limits for the recursive methods. */
+  public static class TreeFilter {
+    public @Nullable String prefix;
+    public @Nullable Pattern glob;
+    public int maxEntries = Integer.MAX_VALUE;
+    public long maxBytes = Long.MAX_VALUE;
+
+    /**
+     * Sets the glob, where `*` and `?` match within one path segment, and `**` matches across
+     * segments.
+     */
+    public void setGlob(String glob) {
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < glob.length(); ++i) {
+        char c = glob.charAt(i);
+        if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          regex.append(".*");
+          ++i;
+        } else if (c == '*') {
+          regex.append("[^/]*");
+        } else if (c == '?') {
+          regex.append("[^/]");
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      this.glob = Pattern.compile(regex.toString());
+    }
+
+    boolean matches(String path) {
+      if (prefix != null && !path.startsWith(prefix)) return false;
+      return glob == null || glob.matcher(path).matches();
+    }
+  }
+
+  /** The output of the recursive methods. */
+  public static class TreeResult<T> {
+    public final Map<String, T> entries = new HashMap<>();
+
+    /** True if a limit cut the walk short. */
+    public boolean truncated;
   }
 
   // helpers -----------------------------------------------------------
 
-  private void deepDelete(File file) {
-    if (file.isDirectory()) {
-      for (File child : file.listFiles()) deepDelete(child);
+  private static boolean isJournal(String path) {
+    return JOURNAL_NAME.equals(path);
+  }
+
+  /**
+   * Replays any journal left behind by a crash or a failed write batch, then checkpoints. Replaying
+   * a batch twice gives the same files, so replaying batches that already landed is harmless. A
+   * batch that fails its checksum never committed, so replay stops there. If a committed batch
+   * cannot be replayed, we keep the journal and fail the current call, since reading or writing
+   * around a half-applied batch could lose data. The next call tries again.
+   */
+  private void recover() throws IOException {
+    if (mRecovered) return;
+    synchronized (mJournalLock) {
+      if (mRecovered) return;
+      applyChanges(readJournal());
+      checkpoint();
+      mRecovered = true;
     }
-    new AtomicFile(file).delete();
   }
 
-  private void writeFile(File file, byte[] data) throws IOException {
-    File parent = file.getParentFile();
-    if (!parent.exists()) parent.mkdirs();
+  /** Syncs every file written since the last checkpoint, so the journal can go. */
+  private void checkpoint() throws IOException {
+    for (String path : mDirty) {
+      File file = new File(mBase, path);
+      if (!file.isFile()) continue; // Deleted since
+      FileInputStream in = new FileInputStream(file);
+      try {
+        in.getFD().sync();
+      } finally {
+        in.close();
+      }
+    }
+    mDirty.clear();
+    if (mJournal.exists() && !mJournal.delete()) {
+      throw new IOException("Cannot delete " + JOURNAL_NAME);
+    }
+    mJournalLength = 0;
+  }
+
+  /** Rejects changes that could never be applied, before they go into the journal. */
+  private void checkChanges(@NonNull List<Change> changes) throws IOException {
+    for (Change change : changes) {
+      if (change.data == null) continue;
+      File file = new File(mBase, change.path);
+      if (file.isDirectory()) throw new IOException("Cannot replace folder " + change.path);
+
+      // The closest existing ancestor has to be a folder:
+      File parent = file.getParentFile();
+      while (parent != null && !parent.exists()) parent = parent.getParentFile();
+      if (parent != null && !parent.isDirectory()) {
+        throw new IOException("Cannot create folder for " + change.path);
+      }
+    }
+  }
+
+  /**
+   * Adds a batch to the end of the journal and syncs it to disk, which commits the batch. Each
+   * record holds a magic number, a length, a change count, and each change as a path and a length
+   * followed by the data, with -1 meaning delete. A CRC32 of everything before it comes last, so a
+   * record torn by a crash is easy to spot.
+   */
+  private void appendJournal(@NonNull List<Change> changes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(JOURNAL_MAGIC);
+    out.writeInt(0); // Length, filled in below
+    out.writeInt(changes.size());
+    for (Change change : changes) {
+      out.writeUTF(change.path);
+      if (change.data == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(change.data.length);
+        out.write(change.data);
+      }
+    }
+    out.flush();
+    byte[] record = bytes.toByteArray();
+    int length = record.length - 8;
+    record[4] = (byte) (length >>> 24);
+    record[5] = (byte) (length >>> 16);
+    record[6] = (byte) (length >>> 8);
+    record[7] = (byte) length;
+    CRC32 crc = new CRC32();
+    crc.update(record);
 
-    AtomicFile atomicFile = new AtomicFile(file);
-    FileOutputStream stream = atomicFile.startWrite();
+    RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
     try {
-      stream.write(data);
-      atomicFile.finishWrite(stream);
+      file.seek(mJournalLength);
+      file.write(record);
+      file.writeLong(crc.getValue());
+      file.getFD().sync();
+      mJournalLength += record.length + 8;
     } catch (IOException e) {
-      atomicFile.failWrite(stream);
+      // The batch never committed, so roll back:
+      try {
+        file.setLength(mJournalLength);
+      } catch (IOException ignored) {
+        // Replay stops at the torn record anyway.
+      }
       throw e;
+    } finally {
+      file.close();
+    }
+  }
+
+  /** Reads the committed batches from the journal, in order, as one list of changes. */
+  private @NonNull List<Change> readJournal() throws IOException {
+    List<Change> out = new ArrayList<>();
+    if (!mJournal.exists()) return out;
+    byte[] bytes = new byte[(int) mJournal.length()];
+    DataInputStream file = new DataInputStream(new FileInputStream(mJournal));
+    try {
+      file.readFully(bytes);
+    } finally {
+      file.close();
+    }
+
+    int start = 0;
+    while (bytes.length - start >= 20) {
+      DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(bytes, start, bytes.length - start));
+      if (in.readInt() != JOURNAL_MAGIC) break;
+      int length = in.readInt();
+      if (length < 4 || length > bytes.length - start - 16) break;
+
+      // Check the trailer:
+      CRC32 crc = new CRC32();
+      crc.update(bytes, start, 8 + length);
+      in.skipBytes(length);
+      if (in.readLong() != crc.getValue()) break;
+
+      in = new DataInputStream(new ByteArrayInputStream(bytes, start + 8, length));
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        String path = in.readUTF();
+        int size = in.readInt();
+        byte[] data = null;
+        if (size >= 0) {
+          data = new byte[size];
+          in.readFully(data);
+        }
+        out.add(new Change(path, data));
+      }
+      start += 16 + length;
     }
+    return out;
+  }
+
+  /**
+   * Moves each change into place. The files aren't synced here, since the journal can replay them
+   * until the next checkpoint syncs them all at once.
+   */
+  private void applyChanges(@NonNull List<Change> changes) throws IOException {
+    for (Change change : changes) {
+      File file = new File(mBase, change.path);
+      if (change.data == null) {
+        deepDelete(file);
+        mCache.remove(change.path);
+        continue;
+      }
+
+      File parent = file.getParentFile();
+      if (!parent.exists()) parent.mkdirs();
+      File temp = new File(file.getPath() + ".tmp");
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+        out.write(change.data);
+      } finally {
+        out.close();
+      }
+
+      // AtomicFile would restore a stale backup over our data:
+      new File(file.getPath() + ".bak").delete();
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        mCache.remove(change.path);
+        throw new IOException("Cannot replace " + change.path);
+      }
+      mCache.put(change.path, change.data);
+      mDirty.add(change.path);
+    }
+  }
+
+  private interface TreeVisitor {
+    /** Returns false to stop the walk. */
+    boolean visit(String path, File file, boolean isFolder);
+  }
+
+  /** Visits everything beneath a path, depth first, without recursion. */
+  private void walk(String path, TreeVisitor visitor, TreeResult<?> out) {
+    ArrayDeque<String> folders = new ArrayDeque<>();
+    folders.push(path);
+    while (!folders.isEmpty()) {
+      String folder = folders.pop();
+      File[] children = new File(mBase, folder).listFiles();
+      if (children == null) continue;
+
+      String prefix = "".equals(folder) ? folder : folder + "/";
+      for (File child : children) {
+        String childPath = prefix + child.getName();
+        if (isJournal(childPath)) continue;
+        boolean isFolder = child.isDirectory();
+        if (!visitor.visit(childPath, child, isFolder)) {
+          out.truncated = true;
+          return;
+        }
+        if (isFolder) folders.push(childPath);
+      }
+    }
+  }
+
+  private void deepDelete(File file) {
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) deepDelete(child);
+    }
+    new AtomicFile(file).delete();
   }
 }
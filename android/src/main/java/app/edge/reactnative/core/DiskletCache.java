@@ -0,0 +1,105 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A byte-bounded, least-recently-used cache of file contents, keyed by Disklet path.
+ *
+ * <p>The cached arrays are shared with callers, so nobody may modify them after handing them over
+ * or getting them back. The size limit comes from `EdgeCoreConfig`, and a limit of 0 turns the
+ * cache off.
+ */
+class DiskletCache {
+  private final LinkedHashMap<String, byte[]> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+  private long mBytes;
+  private long mGeneration;
+  private long mHits;
+  private long mMisses;
+  private long mEvictions;
+
+  public synchronized @Nullable byte[] get(@NonNull String path) {
+    byte[] out = mEntries.get(path);
+    if (out != null) ++mHits;
+    else ++mMisses;
+    return out;
+  }
+
+  /** Returns cached data without counting a hit or miss. */
+  public synchronized @Nullable byte[] peek(@NonNull String path) {
+    return mEntries.get(path);
+  }
+
+  /**
+   * Returns a token that changes whenever the cache sees a write or delete. Readers grab this
+   * before touching the disk, so they can avoid caching data that went stale in the meantime.
+   */
+  public synchronized long getGeneration() {
+    return mGeneration;
+  }
+
+  /** Caches data read from disk, unless a write or delete happened since `generation`. */
+  public synchronized void putIfUnchanged(
+      @NonNull String path, @NonNull byte[] data, long generation) {
+    if (generation == mGeneration) insert(path, data);
+  }
+
+  /** Caches data that was just written to disk. */
+  public synchronized void put(@NonNull String path, @NonNull byte[] data) {
+    ++mGeneration;
+    insert(path, data);
+  }
+
+  /** Forgets a path and everything beneath it. An empty path clears the whole cache. */
+  public synchronized void remove(@NonNull String path) {
+    ++mGeneration;
+    String prefix = path + "/";
+    for (Iterator<Map.Entry<String, byte[]>> it = mEntries.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, byte[]> entry = it.next();
+      String key = entry.getKey();
+      if ("".equals(path) || key.equals(path) || key.startsWith(prefix)) {
+        mBytes -= entry.getValue().length;
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("hits", mHits);
+    out.put("misses", mMisses);
+    out.put("evictions", mEvictions);
+    out.put("entries", mEntries.size());
+    out.put("bytes", mBytes);
+    out.put("limit", EdgeCoreConfig.sDiskletCacheBytes);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private void insert(@NonNull String path, @NonNull byte[] data) {
+    byte[] old = mEntries.remove(path);
+    if (old != null) mBytes -= old.length;
+
+    // Files larger than a quarter of the cache would push out too much:
+    long limit = EdgeCoreConfig.sDiskletCacheBytes;
+    if (limit <= 0 || data.length > limit / 4) return;
+
+    mEntries.put(path, data);
+    mBytes += data.length;
+
+    // Evict the least-recently-used entries:
+    Iterator<Map.Entry<String, byte[]>> it = mEntries.entrySet().iterator();
+    while (mBytes > limit && it.hasNext()) {
+      Map.Entry<String, byte[]> entry = it.next();
+      mBytes -= entry.getValue().length;
+      it.remove();
+      ++mEvictions;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package app.edge.reactnative.core;
+
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Opens the JSON encryption boxes the core keeps on disk, matching `decrypt` in
+ * `src/util/crypto/crypto.ts`.
+ *
+ * <p>A box holds AES-256-CBC ciphertext. The plaintext starts with a random-length header, then a
+ * 32-bit payload length and the payload, then a random-length footer, a SHA-256 checksum of
+ * everything before it, and finally PKCS7 padding.
+ */
+class EdgeBox {
+  /** Decrypts a box, returning the payload. */
+  public static @NonNull byte[] open(@NonNull String json, @NonNull byte[] key)
+      throws IOException {
+    byte[] raw;
+    try {
+      JSONObject box = new JSONObject(json);
+      if (box.getInt("encryptionType") != 0) throw new IOException("Unknown encryption type");
+      byte[] iv = hexToBytes(box.getString("iv_hex"));
+      byte[] ciphertext = Base64.decode(box.getString("data_base64"), Base64.DEFAULT);
+
+      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      raw = cipher.doFinal(ciphertext);
+    } catch (JSONException | IllegalArgumentException e) {
+      throw new IOException("Invalid encryption box");
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Cannot decrypt: " + e.getMessage());
+    }
+
+    // Calculate data locations:
+    try {
+      int headerStart = 1;
+      int headerSize = raw[0] & 0xff;
+      int dataStart = headerStart + headerSize + 4;
+      int dataSize =
+          ((raw[dataStart - 4] & 0xff) << 24)
+              | ((raw[dataStart - 3] & 0xff) << 16)
+              | ((raw[dataStart - 2] & 0xff) << 8)
+              | (raw[dataStart - 1] & 0xff);
+      if (dataSize < 0 || dataSize > raw.length) throw new IOException("Invalid checksum");
+      int footerStart = dataStart + dataSize + 1;
+      int footerSize = raw[footerStart - 1] & 0xff;
+      int hashStart = footerStart + footerSize;
+      int paddingStart = hashStart + 32;
+      if (paddingStart > raw.length) throw new IOException("Invalid checksum");
+
+      // Verify SHA-256 checksum:
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      sha256.update(raw, 0, hashStart);
+      byte[] hash = Arrays.copyOfRange(raw, hashStart, paddingStart);
+      if (!MessageDigest.isEqual(sha256.digest(), hash)) {
+        throw new IOException("Invalid checksum");
+      }
+
+      // Verify pkcs7 padding:
+      int paddingSize = 16 - (paddingStart & 0xf);
+      if (raw.length != paddingStart + paddingSize) {
+        throw new IOException("Invalid PKCS7 padding");
+      }
+      for (int i = paddingStart; i < raw.length; ++i) {
+        if (raw[i] != paddingSize) throw new IOException("Invalid PKCS7 padding");
+      }
+
+      return Arrays.copyOfRange(raw, dataStart, dataStart + dataSize);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Invalid checksum");
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Cannot decrypt: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Decrypts a box as text. Some of our data contains terminating null bytes due to an old bug, so
+   * we strip those off.
+   */
+  public static @NonNull String openText(@NonNull String json, @NonNull byte[] key)
+      throws IOException {
+    byte[] data = open(json, key);
+    int length = data.length;
+    if (length > 0 && data[length - 1] == 0) --length;
+    return new String(data, 0, length, StandardCharsets.UTF_8);
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private static @NonNull byte[] hexToBytes(@NonNull String hex) {
+    if (hex.length() % 2 != 0) throw new IllegalArgumentException("Odd hex length");
+    byte[] out = new byte[hex.length() / 2];
+    for (int i = 0; i < out.length; ++i) {
+      int high = Character.digit(hex.charAt(2 * i), 16);
+      int low = Character.digit(hex.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) throw new IllegalArgumentException("Invalid hex");
+      out[i] = (byte) (high << 4 | low);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,125 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Process-wide tuning options, which the host app can adjust using `EdgeCoreModule.configure`.
+ * Changes apply to work started after the call.
+ */
+class EdgeCoreConfig {
+  /** The most promise completions to evaluate in one script. 1 turns batching off. */
+  static volatile int sResolveBatchSize = 64;
+
+  /**
+   * How long to hold promise completions before evaluating them. 0 means the UI thread's next turn.
+   */
+  static volatile int sResolveBatchDelayMs = 0;
+
+  /** The most bundled asset data the WebViews keep in memory. 0 turns the cache off. */
+  static volatile long sAssetCacheBytes = 8 * 1024 * 1024;
+
+  /** The most page messages to deliver to React Native in one event. 1 turns batching off. */
+  static volatile int sMessageBatchSize = 32;
+
+  /** How long to hold page messages before delivering them. 0 means the UI thread's next turn. */
+  static volatile int sMessageBatchDelayMs = 0;
+
+  /** The most file data Disklet keeps in memory. 0 turns the cache off. */
+  static volatile long sDiskletCacheBytes = 4 * 1024 * 1024;
+
+  /**
+   * The scratch memory one scrypt call should stay within by running fewer threads. This never
+   * fails a call, since accounts must stay able to log in, so a call that needs more than this on
+   * one thread still runs on one thread. 0 means no limit.
+   */
+  static volatile long sScryptMemoryBytes = 0;
+
+  /**
+   * The most scratch memory a single scrypt thread may need, 128 * r * N bytes, before the call
+   * fails instead of running. The largest parameters the core picks need 128 MiB, so the default
+   * leaves room for those. 0 means no limit.
+   */
+  static volatile long sScryptMaxThreadBytes = 256 * 1024 * 1024;
+
+  /** How long a native fetch may wait to connect. 0 means no limit. */
+  static volatile int sFetchConnectTimeoutMs = 30 * 1000;
+
+  /** How long a native fetch may wait for each read from the socket. 0 means no limit. */
+  static volatile int sFetchReadTimeoutMs = 60 * 1000;
+
+  /**
+   * How long a native fetch may take until its body is in hand, or until its headers arrive for a
+   * streamed body. 0 means no limit.
+   */
+  static volatile long sFetchTimeoutMs = 2 * 60 * 1000;
+
+  /** The most native fetches that may be in flight at once, across all hosts. */
+  static volatile int sFetchMaxInFlight = 16;
+
+  /** The most native fetches that may be in flight to a single host at once. */
+  static volatile int sFetchMaxPerHost = 6;
+
+  /**
+   * The most memory native fetches may use for buffered bodies, all together. Fetches wait for
+   * room once this runs out. 0 means no limit.
+   */
+  static volatile long sFetchMemoryBytes = 64 * 1024 * 1024;
+
+  /** The biggest response body one native fetch may buffer. 0 means no limit. */
+  static volatile long sFetchMaxBodyBytes = 32 * 1024 * 1024;
+
+  /** The most disk space the native HTTP cache may use. 0 turns the cache off. */
+  static volatile long sHttpCacheBytes = 16 * 1024 * 1024;
+
+  static void update(@NonNull ReadableMap options) {
+    if (options.hasKey("assetCacheBytes")) {
+      sAssetCacheBytes = Math.max(0, (long) options.getDouble("assetCacheBytes"));
+    }
+    if (options.hasKey("diskletCacheBytes")) {
+      sDiskletCacheBytes = Math.max(0, (long) options.getDouble("diskletCacheBytes"));
+    }
+    if (options.hasKey("fetchConnectTimeoutMs")) {
+      sFetchConnectTimeoutMs = Math.max(0, options.getInt("fetchConnectTimeoutMs"));
+    }
+    if (options.hasKey("fetchMaxInFlight")) {
+      sFetchMaxInFlight = Math.max(1, options.getInt("fetchMaxInFlight"));
+    }
+    if (options.hasKey("fetchMaxBodyBytes")) {
+      sFetchMaxBodyBytes = Math.max(0, (long) options.getDouble("fetchMaxBodyBytes"));
+    }
+    if (options.hasKey("fetchMaxPerHost")) {
+      sFetchMaxPerHost = Math.max(1, options.getInt("fetchMaxPerHost"));
+    }
+    if (options.hasKey("fetchMemoryBytes")) {
+      sFetchMemoryBytes = Math.max(0, (long) options.getDouble("fetchMemoryBytes"));
+    }
+    if (options.hasKey("fetchReadTimeoutMs")) {
+      sFetchReadTimeoutMs = Math.max(0, options.getInt("fetchReadTimeoutMs"));
+    }
+    if (options.hasKey("fetchTimeoutMs")) {
+      sFetchTimeoutMs = Math.max(0, (long) options.getDouble("fetchTimeoutMs"));
+    }
+    if (options.hasKey("httpCacheBytes")) {
+      sHttpCacheBytes = Math.max(0, (long) options.getDouble("httpCacheBytes"));
+    }
+    if (options.hasKey("messageBatchSize")) {
+      sMessageBatchSize = Math.max(1, options.getInt("messageBatchSize"));
+    }
+    if (options.hasKey("messageBatchDelayMs")) {
+      sMessageBatchDelayMs = Math.max(0, options.getInt("messageBatchDelayMs"));
+    }
+    if (options.hasKey("resolveBatchSize")) {
+      sResolveBatchSize = Math.max(1, options.getInt("resolveBatchSize"));
+    }
+    if (options.hasKey("resolveBatchDelayMs")) {
+      sResolveBatchDelayMs = Math.max(0, options.getInt("resolveBatchDelayMs"));
+    }
+    if (options.hasKey("scryptMemoryBytes")) {
+      sScryptMemoryBytes = Math.max(0, (long) options.getDouble("scryptMemoryBytes"));
+    }
+    if (options.hasKey("scryptMaxThreadBytes")) {
+      sScryptMaxThreadBytes = Math.max(0, (long) options.getDouble("scryptMaxThreadBytes"));
+    }
+  }
+}
@@ -1,16 +1,32 @@
 package app.edge.reactnative.core;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.json.JSONException;
 
 /**
  * Native module that exports constants for edge-core-js. Accessible via
  * NativeModules.EdgeCoreModule.getConstants() in JavaScript.
+ *
+ * <p>Also accepts native tuning options via NativeModules.EdgeCoreModule.configure(options), and
+ * can prepare the native side ahead of time via NativeModules.EdgeCoreModule.warmUp(options).
  */
 public class EdgeCoreModule extends ReactContextBaseJavaModule {
+  /** The bundles every EdgeCoreWebView loads first. */
+  private static final List<String> CORE_ASSETS =
+      Arrays.asList("edge-core-js/index.html", "edge-core-js/edge-core.js");
+
   public EdgeCoreModule(ReactApplicationContext context) {
     super(context);
   }
@@ -28,4 +44,42 @@ public class EdgeCoreModule extends ReactContextBaseJavaModule {
     constants.put("rootBaseUri", "file:///android_asset/");
     return constants;
   }
+
+  /** Adjusts native tuning options. See EdgeCoreConfig for the available keys. */
+  @ReactMethod
+  public void configure(ReadableMap options) {
+    EdgeCoreConfig.update(options);
+  }
+
+  /**
+   * Starts the native runtime, the core bundles, and the WebView provider in the background, so the
+   * first EdgeCoreWebView comes up faster. Safe to call more than once.
+   *
+   * <p>Resolves with the milliseconds each phase took: libraryMs, runtimeMs, assetsMs, webViewMs,
+   * and totalMs, plus the assetBytes preloaded. The `assets` option replaces the list of bundle
+   * paths to preload, such as "plugins/bitcoin.js".
+   */
+  @ReactMethod
+  public void warmUp(@Nullable ReadableMap options, Promise promise) {
+    List<String> assets = CORE_ASSETS;
+    if (options != null && options.hasKey("assets")) {
+      ReadableArray paths = options.getArray("assets");
+      assets = new ArrayList<>(paths.size());
+      for (int i = 0; i < paths.size(); ++i) assets.add(paths.getString(i));
+    }
+    new WarmUp(getReactApplicationContext(), assets, promise).start();
+  }
+
+  /**
+   * Resolves with the same metrics as the `nativeStats` bridge method, as a JSON string, so the
+   * host app can ship them with its telemetry.
+   */
+  @ReactMethod
+  public void getNativeStats(Promise promise) {
+    try {
+      promise.resolve(NativeRuntime.getAllStats().toString());
+    } catch (JSONException error) {
+      promise.reject(error);
+    }
+  }
 }
@@ -1,19 +1,16 @@
 package app.edge.reactnative.core;
 
-import android.content.res.AssetManager;
-import android.util.Log;
+import android.net.Uri;
+import android.util.Base64;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
+import androidx.annotation.Nullable;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import org.json.JSONArray;
 
@@ -31,14 +28,26 @@ import org.json.JSONArray;
  * not register a system-wide URL handler - other apps cannot access these URLs.
  */
 class EdgeCoreWebView extends WebView {
-  private static final String TAG = "EdgeCoreWebView";
-
   /** Default URL for the WebView. Uses the WebViewAssetLoader URL format. */
   private static final String DEFAULT_SOURCE =
       LocalContentWebViewClient.BUNDLE_BASE_URI + "/edge-core-js/index.html";
 
   private final ThemedReactContext mContext;
   private final EdgeNative mNative;
+  private final AssetServer mAssets;
+  private final ScriptBatcher mScripts = new ScriptBatcher(this);
+  private final MessageBatcher mMessages =
+      new MessageBatcher(
+          this,
+          new MessageBatcher.Sink() {
+            @Override
+            public void emit(WritableMap event) {
+              RCTEventEmitter emitter =
+                  mContext.getReactApplicationContext().getJSModule(RCTEventEmitter.class);
+              emitter.receiveEvent(getId(), "onMessage", event);
+            }
+          });
+  private BinaryChannel mBinaryChannel;
 
   // react api--------------------------------------------------------------
 
@@ -64,7 +73,8 @@ class EdgeCoreWebView extends WebView {
   public EdgeCoreWebView(ThemedReactContext context) {
     super(context);
     mContext = context;
-    mNative = new EdgeNative(mContext.getFilesDir());
+    mNative = new EdgeNative(mContext);
+    mAssets = new AssetServer(mContext);
 
     getSettings().setAllowFileAccess(false);
     getSettings().setJavaScriptEnabled(true);
@@ -78,6 +88,10 @@ class EdgeCoreWebView extends WebView {
   @Override
   protected void onDetachedFromWindow() {
     super.onDetachedFromWindow();
+    closeBinaryChannel();
+    mScripts.close();
+    mMessages.close();
+    mNative.close();
     destroy();
   }
 
@@ -87,81 +101,14 @@ class EdgeCoreWebView extends WebView {
    * Serve a file from assets with COOP/COEP headers. Package-private for use by
    * LocalContentWebViewClient.
    */
-  WebResourceResponse serveFileWithHeaders(String resourcePath) {
-    AssetManager assetManager = mContext.getAssets();
-    byte[] data = null;
-
-    try (InputStream inputStream = assetManager.open(resourcePath)) {
-      data = readAllBytes(inputStream);
-      Log.d(TAG, "Serving file: " + resourcePath);
-    } catch (IOException e) {
-      // File not in assets
-    }
-
-    if (data == null) {
-      Log.d(TAG, "File not found: " + resourcePath);
-      return createNotFoundResponse();
-    }
-
-    String mimeType = getMimeType(resourcePath);
-    return createResponseWithHeaders(mimeType, data);
-  }
-
-  /** Create a WebResourceResponse with COOP/COEP headers for SharedArrayBuffer support. */
-  private WebResourceResponse createResponseWithHeaders(String mimeType, byte[] data) {
-    Map<String, String> headers = new HashMap<>();
-    // CORS headers to allow cross-origin requests (needed for debug mode with localhost)
-    headers.put("Access-Control-Allow-Origin", "*");
-    headers.put("Cross-Origin-Resource-Policy", "cross-origin");
-    // Cross-origin isolation headers required for SharedArrayBuffer (needed by mixFetch web
-    // workers)
-    headers.put("Cross-Origin-Opener-Policy", "same-origin");
-    headers.put("Cross-Origin-Embedder-Policy", "require-corp");
-
-    return new WebResourceResponse(
-        mimeType, "UTF-8", 200, "OK", headers, new ByteArrayInputStream(data));
+  WebResourceResponse serveFileWithHeaders(
+      String resourcePath, @Nullable Map<String, String> requestHeaders) {
+    return mAssets.serve(resourcePath, requestHeaders);
   }
 
   /** Create a 404 Not Found response. Package-private for use by LocalContentWebViewClient. */
   WebResourceResponse createNotFoundResponse() {
-    Map<String, String> headers = new HashMap<>();
-    // CORS headers
-    headers.put("Access-Control-Allow-Origin", "*");
-    headers.put("Cross-Origin-Resource-Policy", "cross-origin");
-    // Include COOP/COEP even on error responses
-    headers.put("Cross-Origin-Opener-Policy", "same-origin");
-    headers.put("Cross-Origin-Embedder-Policy", "require-corp");
-
-    return new WebResourceResponse(
-        "text/plain",
-        "UTF-8",
-        404,
-        "Not Found",
-        headers,
-        new ByteArrayInputStream("Not Found".getBytes()));
-  }
-
-  private byte[] readAllBytes(InputStream inputStream) throws IOException {
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    byte[] chunk = new byte[4096];
-    int bytesRead;
-    while ((bytesRead = inputStream.read(chunk)) != -1) {
-      buffer.write(chunk, 0, bytesRead);
-    }
-    return buffer.toByteArray();
-  }
-
-  // We only serve HTML, JS, and WASM files
-  private String getMimeType(String path) {
-    String lowerPath = path.toLowerCase();
-    if (lowerPath.endsWith(".html") || lowerPath.endsWith(".htm")) {
-      return "text/html";
-    } else if (lowerPath.endsWith(".js")) {
-      return "application/javascript";
-    } else if (lowerPath.endsWith(".wasm")) {
-      return "application/wasm";
-    }
-    return "application/octet-stream";
+    return mAssets.notFound();
   }
 
   // JavaScript interface --------------------------------------------------
@@ -174,11 +121,7 @@ class EdgeCoreWebView extends WebView {
 
     @JavascriptInterface
     public void postMessage(String message) {
-      RCTEventEmitter emitter =
-          mContext.getReactApplicationContext().getJSModule(RCTEventEmitter.class);
-      WritableMap event = Arguments.createMap();
-      event.putString("message", message);
-      emitter.receiveEvent(getId(), "onMessage", event);
+      mMessages.add(message);
     }
 
     @JavascriptInterface
@@ -209,6 +152,34 @@ class EdgeCoreWebView extends WebView {
     loadUrl(baseUrl);
   }
 
+  /**
+   * Drops the old page's native work before the new page starts reusing its request ids.
+   * Package-private for use by LocalContentWebViewClient.
+   */
+  void startPage() {
+    mNative.startPage();
+  }
+
+  /**
+   * Offers the freshly-loaded page a channel for binary data, if the WebView supports it.
+   * Package-private for use by LocalContentWebViewClient.
+   */
+  void openBinaryChannel(String url) {
+    closeBinaryChannel();
+    if (url == null || !BinaryChannel.isSupported()) return;
+
+    // Only hand the port to our own page:
+    Uri uri = Uri.parse(url);
+    Uri origin = Uri.parse(uri.getScheme() + "://" + uri.getAuthority());
+    mBinaryChannel = new BinaryChannel(this, mNative, origin);
+  }
+
+  private void closeBinaryChannel() {
+    if (mBinaryChannel == null) return;
+    mBinaryChannel.close();
+    mBinaryChannel = null;
+  }
+
   private class WebViewPromise implements PendingCall {
     private final int mId;
 
@@ -218,15 +189,28 @@ class EdgeCoreWebView extends WebView {
 
     @Override
     public void resolve(Object value) {
-      runJs("window.nativeBridge.resolve(" + mId + "," + stringify(value) + ")");
+      if (value instanceof JsonBytes.Writable) {
+        // Write large results straight into the script, without intermediate strings:
+        JsonBytes.Writable writable = (JsonBytes.Writable) value;
+        JsonBytes out = new JsonBytes(writable.estimateSize() + 64, 0);
+        out.raw("window.nativeBridge.resolve(" + mId + ",");
+        writable.writeJson(out);
+        out.raw(")");
+        mScripts.add(new String(out.getBuffer(), 0, out.size(), StandardCharsets.UTF_8));
+        return;
+      }
+      mScripts.add("window.nativeBridge.resolve(" + mId + "," + stringify(value) + ")");
     }
 
     @Override
     public void reject(String message) {
-      runJs("window.nativeBridge.reject(" + mId + "," + stringify(message) + ")");
+      mScripts.add("window.nativeBridge.reject(" + mId + "," + stringify(message) + ")");
     }
 
     private String stringify(Object raw) {
+      // Binary data cannot go inside JSON as-is:
+      if (raw instanceof byte[]) raw = Base64.encodeToString((byte[]) raw, Base64.NO_WRAP);
+
       JSONArray array = new JSONArray();
       array.put(raw);
       String out = array.toString();
@@ -1,30 +1,140 @@
 package app.edge.reactnative.core;
 
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.util.Base64;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 class EdgeNative {
+  // Responses larger than this will stream, if the caller allows it:
+  private static final int STREAM_THRESHOLD = 256 * 1024;
+
+  // Request bodies smaller than this aren't worth compressing:
+  private static final int COMPRESS_THRESHOLD = 1024;
+
+  // Fetch options that change how a response gets delivered, so requests must match to share:
+  private static final String[] SHARE_KEY_OPTS = {
+    "stream", "maxBodyBytes", "priority", "connectTimeoutMs", "readTimeoutMs"
+  };
+
+  // The most text diskletReadTree will return at once:
+  private static final long READ_TREE_MAX_BYTES = 32 * 1024 * 1024;
+
+  // The password and salt scryptBenchmark hashes:
+  private static final byte[] BENCHMARK_DATA = new byte[32];
+
+  private static boolean sLibraryLoaded;
+
+  // Shared with the other views:
+  private final NativeRuntime mRuntime;
   private final Disklet mDisklet;
-  private final ExecutorService mPool = Executors.newCachedThreadPool();
+  private final NativeHttpClient mHttp;
+  private final HttpCache mHttpCache;
+  private final SharedFetches mSharedGets;
+  private final NativeScheduler mScheduler;
+  private final FetchScheduler mFetchScheduler;
+  private final Map<Integer, FetchStream> mStreams;
+  private final AtomicInteger mLastStreamId;
+
+  // Just for this view, since request ids come from its own page:
+  private final FetchRegistry mFetches = new FetchRegistry();
+  private final Set<Integer> mStreamIds =
+      Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+  private final ScryptBenchmark mScryptBenchmark;
+  private volatile boolean mClosed;
 
-  public EdgeNative(File base) {
-    mDisklet = new Disklet(base);
+  // Bumped whenever the WebView loads a new page, so old calls don't touch the new page's ids:
+  private volatile int mPage;
+
+  /** Starts a view's share of the native runtime, which lasts until `close`. */
+  public EdgeNative(@NonNull Context context) {
+    mRuntime = NativeRuntime.acquire(context);
+    mDisklet = mRuntime.disklet;
+    mHttp = mRuntime.http;
+    mHttpCache = mRuntime.httpCache;
+    mSharedGets = mRuntime.sharedGets;
+    mScheduler = mRuntime.scheduler;
+    mFetchScheduler = mRuntime.fetchScheduler;
+    mStreams = mRuntime.streams;
+    mLastStreamId = mRuntime.lastStreamId;
+    mScryptBenchmark =
+        new ScryptBenchmark(
+            new ScryptBenchmark.Runner() {
+              @Override
+              public void run(int n, int r, int p) {
+                byte[] out =
+                    scrypt(
+                        BENCHMARK_DATA,
+                        BENCHMARK_DATA,
+                        n,
+                        r,
+                        p,
+                        32,
+                        mScheduler.getLaneSize(NativeScheduler.Lane.CPU),
+                        EdgeCoreConfig.sScryptMemoryBytes,
+                        EdgeCoreConfig.sScryptMaxThreadBytes);
+                if (out == null) throw new IllegalStateException("Failed scrypt");
+              }
+            },
+            new File(context.getCacheDir(), "edge-core-scrypt-benchmark.json"),
+            getAppVersion(context));
+  }
+
+  /** Loads the JNI library, if that hasn't happened yet. */
+  static synchronized void loadLibrary() {
+    if (sLibraryLoaded) return;
+    System.loadLibrary("edge-core-jni");
+    sLibraryLoaded = true;
+  }
+
+  /**
+   * Cancels this view's fetches and streams, drops its calls that have not started yet, and lets
+   * go of the shared runtime.
+   */
+  public void close() {
+    synchronized (this) {
+      if (mClosed) return;
+      mClosed = true;
+    }
+    mFetches.cancelAll("View closed");
+    closeStreams();
+    NativeRuntime.release(mRuntime);
+  }
+
+  /**
+   * Forgets the old page's fetches and streams when the WebView starts loading a new page. The new
+   * page starts its request ids over, so anything left behind would collide with them.
+   */
+  public void startPage() {
+    synchronized (this) {
+      if (mClosed) return;
+      ++mPage;
+    }
+    mFetches.cancelAll("Page reloaded");
+    closeStreams();
   }
 
   /**
@@ -34,12 +144,110 @@ class EdgeNative {
    * to the UI thread if necessary.
    */
   public void call(@NonNull String name, @NonNull String args, @NonNull PendingCall promise) {
-    mPool.execute(
+    if (mClosed) return;
+    final CallStats.Call tracked = CallStats.start(name, args.length(), promise);
+    final int page = mPage;
+
+    // The fetch scheduler needs to see the arguments up front:
+    if ("fetch".equals(name)) {
+      try {
+        scheduleFetch(new JSONArray(args), page, tracked);
+      } catch (JSONException error) {
+        tracked.reject(error.getMessage());
+      }
+      return;
+    }
+
+    schedule(
+        name,
+        tracked,
+        new Runnable() {
+          @Override
+          public void run() {
+            // Nobody is listening anymore:
+            if (mClosed || page != mPage) return;
+            tracked.started();
+            try {
+              handleCall(name, new JSONArray(args), tracked);
+            } catch (Throwable error) {
+              tracked.reject(error.getMessage());
+            }
+          }
+        });
+  }
+
+  /**
+   * Handles a native method call whose arguments are already decoded. Binary arguments may appear
+   * in the array as raw `byte[]` values.
+   */
+  public void call(@NonNull String name, @NonNull JSONArray args, @NonNull PendingCall promise) {
+    if (mClosed) return;
+    final CallStats.Call tracked = CallStats.start(name, CallStats.sizeOf(args), promise);
+    final int page = mPage;
+
+    if ("fetch".equals(name)) {
+      scheduleFetch(args, page, tracked);
+      return;
+    }
+
+    schedule(
+        name,
+        tracked,
         new Runnable() {
           @Override
           public void run() {
+            if (mClosed || page != mPage) return;
+            tracked.started();
+            try {
+              handleCall(name, args, tracked);
+            } catch (Throwable error) {
+              tracked.reject(error.getMessage());
+            }
+          }
+        });
+  }
+
+  /** Queues a task on the lane that suits the given method, or rejects if the lanes are gone. */
+  private void schedule(
+      @NonNull String name, @NonNull PendingCall promise, @NonNull Runnable task) {
+    NativeScheduler.Lane lane = getLane(name);
+    if (!mScheduler.execute(lane, getPriority(name), task)) {
+      promise.reject("Native " + lane.name().toLowerCase() + " lane has shut down");
+    }
+  }
+
+  /**
+   * Queues a fetch behind others to the same host, using the optional `priority` of `"high"`,
+   * `"normal"`, or `"low"` from its options.
+   */
+  private void scheduleFetch(
+      @NonNull final JSONArray args, final int page, @NonNull final CallStats.Call promise) {
+    String host = "";
+    try {
+      host = new URL(args.getString(0)).getHost();
+    } catch (JSONException | MalformedURLException error) {
+      // handleFetch will report the problem.
+    }
+
+    NativeScheduler.Priority priority = NativeScheduler.Priority.NORMAL;
+    JSONObject opts = args.optJSONObject(5);
+    if (opts != null) {
+      String name = opts.optString("priority");
+      if ("high".equals(name)) priority = NativeScheduler.Priority.HIGH;
+      if ("low".equals(name)) priority = NativeScheduler.Priority.LOW;
+    }
+
+    mFetchScheduler.submit(
+        host,
+        priority,
+        promise,
+        new FetchScheduler.Task() {
+          @Override
+          public void run(@NonNull FetchScheduler.Slot slot) {
+            if (mClosed || page != mPage) return;
+            promise.started();
             try {
-              handleCall(name, new JSONArray(args), promise);
+              handleFetch(args, promise, slot);
             } catch (Throwable error) {
               promise.reject(error.getMessage());
             }
@@ -47,17 +255,56 @@ class EdgeNative {
         });
   }
 
+  private static @NonNull NativeScheduler.Lane getLane(@NonNull String name) {
+    switch (name) {
+      case "randomBytes":
+        return NativeScheduler.Lane.CPU;
+      case "scrypt":
+      case "scryptBenchmark":
+        return NativeScheduler.Lane.SCRYPT;
+      case "fetch":
+        return NativeScheduler.Lane.NETWORK;
+      default:
+        return NativeScheduler.Lane.IO;
+    }
+  }
+
+  private static @NonNull NativeScheduler.Priority getPriority(@NonNull String name) {
+    switch (name) {
+      case "randomBytes":
+      case "scrypt":
+      case "scryptBenchmark":
+        // Login is waiting on these:
+        return NativeScheduler.Priority.HIGH;
+      default:
+        return NativeScheduler.Priority.NORMAL;
+    }
+  }
+
   private void handleCall(
       @NonNull String name, @NonNull JSONArray args, @NonNull PendingCall promise)
       throws IOException, JSONException {
     switch (name) {
+      case "batch":
+        handleBatch(args.getJSONArray(0), promise);
+        break;
+
       case "diskletDelete":
         mDisklet.delete(args.getString(0));
         promise.resolve(null);
         break;
 
       case "diskletGetData":
-        promise.resolve(Base64.encodeToString(mDisklet.getData(args.getString(0)), Base64.NO_WRAP));
+        promise.resolve(mDisklet.getData(args.getString(0)));
+        break;
+
+      case "diskletGetDecrypted":
+        {
+          String json = getFirstText(args.getJSONArray(0));
+          byte[] key = getBytes(args, 1);
+          if (args.optBoolean(2)) promise.resolve(EdgeBox.openText(json, key));
+          else promise.resolve(EdgeBox.open(json, key));
+        }
         break;
 
       case "diskletGetText":
@@ -68,8 +315,23 @@ class EdgeNative {
         promise.resolve(new JSONObject(mDisklet.list(args.getString(0))));
         break;
 
+      case "diskletListRecursive":
+        {
+          Disklet.TreeFilter filter = getTreeFilter(args.optJSONObject(1));
+          promise.resolve(treeToJson(mDisklet.listRecursive(args.getString(0), filter)));
+        }
+        break;
+
+      case "diskletReadTree":
+        {
+          Disklet.TreeFilter filter = getTreeFilter(args.optJSONObject(1));
+          if (filter.maxBytes > READ_TREE_MAX_BYTES) filter.maxBytes = READ_TREE_MAX_BYTES;
+          promise.resolve(treeToJson(mDisklet.readTree(args.getString(0), filter)));
+        }
+        break;
+
       case "diskletSetData":
-        mDisklet.setData(args.getString(0), Base64.decode(args.getString(1), Base64.DEFAULT));
+        mDisklet.setData(args.getString(0), getBytes(args, 1));
         promise.resolve(null);
         break;
 
@@ -78,8 +340,46 @@ class EdgeNative {
         promise.resolve(null);
         break;
 
+      case "diskletWriteBatch":
+        mDisklet.writeBatch(getChanges(args.getJSONArray(0)));
+        promise.resolve(null);
+        break;
+
       case "fetch":
-        handleFetch(args, promise);
+        handleFetch(args, promise, null);
+        break;
+
+      case "fetchCancel":
+        mFetches.cancel(args.getInt(0));
+        promise.resolve(null);
+        break;
+
+      case "fetchStreamCancel":
+        {
+          // Views can only touch their own streams:
+          int streamId = args.getInt(0);
+          FetchStream stream = mStreamIds.remove(streamId) ? mStreams.remove(streamId) : null;
+          if (stream != null) stream.cancel();
+          promise.resolve(null);
+        }
+        break;
+
+      case "fetchStreamRead":
+        {
+          int streamId = args.getInt(0);
+          FetchStream stream = mStreamIds.contains(streamId) ? mStreams.get(streamId) : null;
+          if (stream == null) promise.reject("No fetch stream " + streamId);
+          else stream.read(promise);
+        }
+        break;
+
+      case "nativeStats":
+        {
+          JSONObject stats = NativeRuntime.getAllStats();
+          JSONObject http = stats.optJSONObject("http");
+          if (http != null) http.put("inFlight", mFetches.size());
+          promise.resolve(stats);
+        }
         break;
 
       case "randomBytes":
@@ -87,21 +387,40 @@ class EdgeNative {
           SecureRandom sr = new SecureRandom();
           byte[] entropy = new byte[args.getInt(0)];
           sr.nextBytes(entropy);
-          promise.resolve(Base64.encodeToString(entropy, Base64.NO_WRAP));
+          promise.resolve(entropy);
         }
         break;
 
       case "scrypt":
         {
-          byte[] data = Base64.decode(args.getString(0), Base64.DEFAULT);
-          byte[] salt = Base64.decode(args.getString(1), Base64.DEFAULT);
+          byte[] data = getBytes(args, 0);
+          byte[] salt = getBytes(args, 1);
           int n = args.getInt(2);
           int r = args.getInt(3);
           int p = args.getInt(4);
           int dklen = args.getInt(5);
-          byte[] out = scrypt(data, salt, n, r, p, dklen);
+          // Only one scrypt runs at a time, so it can spread its p lanes across every core:
+          int threads = mScheduler.getLaneSize(NativeScheduler.Lane.CPU);
+          byte[] out =
+              scrypt(
+                  data,
+                  salt,
+                  n,
+                  r,
+                  p,
+                  dklen,
+                  threads,
+                  EdgeCoreConfig.sScryptMemoryBytes,
+                  EdgeCoreConfig.sScryptMaxThreadBytes);
           if (out == null) promise.reject("Failed scrypt");
-          else promise.resolve(Base64.encodeToString(out, Base64.NO_WRAP));
+          else promise.resolve(out);
+        }
+        break;
+
+      case "scryptBenchmark":
+        {
+          JSONObject opts = args.optJSONObject(0);
+          promise.resolve(mScryptBenchmark.run(opts != null ? opts : new JSONObject()));
         }
         break;
 
@@ -110,57 +429,170 @@ class EdgeNative {
     }
   }
 
-  private void handleFetch(@NonNull JSONArray args, @NonNull PendingCall promise)
+  /**
+   * Runs several calls in a single hop across the bridge.
+   *
+   * <p>Each entry in the array is a `[name, args]` pair. Calls belonging to the batch's own lane
+   * run in order on this thread, while others go to their own lanes. The promise resolves once they
+   * have all finished, with one `{ value }` or `{ error }` entry per call.
+   */
+  private void handleBatch(@NonNull JSONArray calls, @NonNull PendingCall promise) {
+    BatchCall batch = new BatchCall(calls.length(), promise);
+    for (int i = 0; i < calls.length(); ++i) {
+      PendingCall item = batch.item(i);
+      try {
+        JSONArray call = calls.getJSONArray(i);
+        String name = call.getString(0);
+        JSONArray args = call.getJSONArray(1);
+        if ("batch".equals(name)) {
+          item.reject("Cannot nest batch calls");
+        } else if (getLane(name) == getLane("batch")) {
+          CallStats.Call tracked = CallStats.start(name, CallStats.sizeOf(args), item);
+          tracked.started();
+          try {
+            handleCall(name, args, tracked);
+          } catch (Throwable error) {
+            tracked.reject(error.getMessage());
+          }
+        } else {
+          // Don't let slow work on other lanes hold up this one:
+          call(name, args, item);
+        }
+      } catch (Throwable error) {
+        item.reject(error.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Makes an HTTP request. The optional `opts` argument can set `connectTimeoutMs`,
+   * `readTimeoutMs`, and an overall `timeoutMs`, which default to the `EdgeCoreConfig` values. If
+   * it has a `requestId`, JavaScript can abort the request using `fetchCancel`.
+   *
+   * <p>GET requests with the `cache` option go through the HTTP cache, and report how that went in
+   * the response's `cacheStatus` field. Identical GET requests that overlap share one response, if
+   * their options match, but each can still be cancelled or time out on its own.
+   */
+  private void handleFetch(
+      @NonNull JSONArray args,
+      @NonNull PendingCall promise,
+      @Nullable FetchScheduler.Slot slot)
       throws JSONException {
     String uri = args.getString(0);
     String method = args.getString(1);
     JSONObject headers = args.getJSONObject(2);
     @Nullable Object body = args.opt(3);
     boolean bodyIsBase64 = args.optBoolean(4);
+    JSONObject opts = args.optJSONObject(5);
+    if (opts == null) opts = new JSONObject();
+    boolean hasBody = body instanceof String || body instanceof byte[];
+    boolean isGet = "GET".equals(method) && !hasBody;
+    boolean useCache = isGet && opts.optBoolean("cache") && EdgeCoreConfig.sHttpCacheBytes > 0;
+
+    // Anonymous requests still get a deadline, just not a way to cancel:
+    int requestId = opts.optInt("requestId", -1);
+    FetchRegistry.Entry entry =
+        requestId >= 0 ? mFetches.start(requestId) : new FetchRegistry.Entry();
+    long timeoutMs = opts.optLong("timeoutMs", EdgeCoreConfig.sFetchTimeoutMs);
+    if (timeoutMs > 0) entry.setDeadline(timeoutMs);
+
+    // Wait for an identical request that is already running:
+    SharedFetches.Leader shared = null;
+    if (isGet) {
+      String key = getShareKey(uri, headers, opts, useCache);
+      shared = joinSharedGet(key, args, requestId, entry, promise);
+      if (shared == null) return;
+      promise = shared;
+    }
 
+    // Whatever goes wrong from here, the leader must settle its followers too:
+    FetchMemory.Lease lease = null;
     HttpURLConnection connection = null;
+    InputStream responseStream = null;
+    String host = null;
     try {
+      // Use a cached response if it's still fresh:
+      HttpCache.Entry cached = null;
+      if (useCache) {
+        cached = mHttpCache.get(uri, headers);
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+          mHttpCache.hit(cached, false);
+          promise.resolve(makeCachedResponse(cached, "hit"));
+          return;
+        }
+        if (cached != null) {
+          headers = new JSONObject(headers.toString());
+          cached.addValidators(headers);
+        }
+      }
+
+      // Bodies held in memory count against the shared budget:
+      lease = FetchMemory.open(opts.optLong("maxBodyBytes"));
+      if (!entry.attach(lease)) throw new IOException(entry.getCancelReason());
+
       // Set up the HTTP connection:
-      connection = (HttpURLConnection) new URL(uri).openConnection();
+      connection = mHttp.open(uri);
+      host = connection.getURL().getHost();
+      if (!entry.attach(connection)) throw new IOException(entry.getCancelReason());
+      connection.setConnectTimeout(
+          opts.optInt("connectTimeoutMs", EdgeCoreConfig.sFetchConnectTimeoutMs));
+      connection.setReadTimeout(opts.optInt("readTimeoutMs", EdgeCoreConfig.sFetchReadTimeoutMs));
       connection.setRequestMethod(method);
       connection.setDoInput(true);
       connection.setUseCaches(false);
 
-      // HTTPS needs help:
-      if (connection instanceof HttpsURLConnection) {
-        HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(null, null, null);
-        httpsConnection.setSSLSocketFactory(context.getSocketFactory());
-      }
-
       // Add the headers:
       for (Iterator<String> it = headers.keys(); it.hasNext(); ) {
         String key = it.next();
         connection.setRequestProperty(key, headers.getString(key));
       }
 
-      // Add the body:
-      if (body instanceof String) {
-        String bodyText = (String) body;
-        byte[] bodyData =
-            bodyIsBase64
-                ? Base64.decode(bodyText, Base64.DEFAULT)
-                : bodyText.getBytes(StandardCharsets.UTF_8);
+      // Ask for a compressed response, unless the caller has its own preference.
+      // Setting this ourselves means the platform won't decode it for us:
+      boolean decode = HttpCache.getHeader(headers, "Accept-Encoding") == null;
+      if (decode) {
+        connection.setRequestProperty("Accept-Encoding", NativeHttpClient.ACCEPT_ENCODING);
+      }
+
+      // Prepare the body:
+      byte[] bodyData = null;
+      if (hasBody) {
+        bodyData =
+            body instanceof byte[]
+                ? (byte[]) body
+                : bodyIsBase64
+                    ? Base64.decode((String) body, Base64.DEFAULT)
+                    : ((String) body).getBytes(StandardCharsets.UTF_8);
+        if (opts.optBoolean("compressBody")
+            && bodyData.length >= COMPRESS_THRESHOLD
+            && HttpCache.getHeader(headers, "Content-Encoding") == null) {
+          bodyData = mHttp.gzip(bodyData);
+          connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        lease.reserve(bodyData.length);
         connection.setRequestProperty("Content-Length", Integer.toString(bodyData.length));
         connection.setDoOutput(true);
+      }
+
+      // Connect first, so DNS, TCP, and TLS get timed apart from the upload:
+      long startedAt = System.nanoTime();
+      connection.connect();
+      long connectedAt = System.nanoTime();
+
+      // Send the body:
+      if (bodyData != null) {
         OutputStream outStream = connection.getOutputStream();
         outStream.write(bodyData);
         outStream.flush();
         outStream.close();
+        lease.reserve(0);
       }
 
-      // Make the request:
-      connection.connect();
-
       // Read the response status:
-      JSONObject response = new JSONObject();
-      response.put("status", connection.getResponseCode());
+      int status = connection.getResponseCode();
+      long headersAt = System.nanoTime();
+      double connectMs = (connectedAt - startedAt) / 1e6;
+      double ttfbMs = (headersAt - connectedAt) / 1e6;
 
       // Read the response headers:
       JSONObject responseHeaders = new JSONObject();
@@ -171,30 +603,302 @@ class EdgeNative {
         if (key == null || value == null) break;
         responseHeaders.put(key, value);
       }
-      response.put("headers", responseHeaders);
+      FetchResponse response = new FetchResponse(status, responseHeaders);
 
-      // Read the response body:
-      StreamStringReader responseBody = new StreamStringReader();
-      responseBody.read(connection.getInputStream(), responseHeaders.optInt("Content-Length"));
-      try {
-        response.put("body", responseBody.getUtf8());
-        response.put("bodyIsBase64", false);
-      } catch (Exception error) {
-        response.put("body", responseBody.getBase64());
-        response.put("bodyIsBase64", true);
+      // The server says our cached copy is still good:
+      if (cached != null && status == 304) {
+        mHttp.release(connection, connection.getInputStream());
+        connection = null;
+        CallStats.recordFetch(host, connectMs, ttfbMs, -1, 0);
+        cached = mHttpCache.revalidate(cached, responseHeaders);
+        mHttpCache.hit(cached, true);
+        promise.resolve(makeCachedResponse(cached, "revalidated"));
+        return;
+      }
+      if (useCache) {
+        mHttpCache.miss();
+        response.setCacheStatus("miss");
       }
 
+      // Read the response body, which lives in a different stream for errors:
+      responseStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+      // Decompress as we read, so the body is never buffered in both forms:
+      String encoding = HttpCache.getHeader(responseHeaders, "Content-Encoding");
+      boolean decoded = false;
+      if (decode && responseStream != null && encoding != null) {
+        InputStream decodedStream = mHttp.decode(responseStream, encoding);
+        if (decodedStream != responseStream) {
+          responseStream = decodedStream;
+          decoded = true;
+          HttpCache.removeHeader(responseHeaders, "Content-Encoding");
+          HttpCache.removeHeader(responseHeaders, "Content-Length");
+        }
+      }
+
+      // Stream large or open-ended bodies instead of buffering them:
+      int contentLength = connection.getContentLength();
+      if (opts.optBoolean("stream")
+          && responseStream != null
+          && status != 204
+          && status != 304
+          && (contentLength < 0 || contentLength > STREAM_THRESHOLD)) {
+        final int streamId = mLastStreamId.incrementAndGet();
+        FetchStream stream =
+            new FetchStream(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    // The reader has collected everything, or gave up:
+                    mStreams.remove(streamId);
+                    mStreamIds.remove(streamId);
+                  }
+                });
+        mStreams.put(streamId, stream);
+        mStreamIds.add(streamId);
+        if (!entry.attach(stream)) {
+          stream.cancel();
+          throw new IOException(entry.getCancelReason());
+        }
+        response.setStreamId(streamId);
+        CallStats.recordFetch(host, connectMs, ttfbMs, -1, 0);
+
+        // Only one reader can consume a stream:
+        if (shared != null) shared.release();
+        promise.resolve(response);
+
+        // The read timeout and the stream's idle timeout cover the body from here:
+        entry.clearDeadline();
+
+        // A long-lived stream shouldn't keep other requests to its host waiting:
+        if (slot != null) slot.releaseHost();
+
+        // Queued chunks outlive the pump, so the stream stays registered until drained:
+        if (stream.pump(responseStream)) {
+          mHttp.release(connection, responseStream);
+          connection = null;
+        }
+        return;
+      }
+
+      // Don't bother downloading a body we would only throw away:
+      if (!decoded && contentLength > lease.getMaxBodyBytes()) throw lease.tooLarge();
+
+      StreamStringReader responseBody = new StreamStringReader(lease);
+      if (responseStream != null) {
+        responseBody.read(responseStream, contentLength);
+      }
+      response.setBody(responseBody.getBuffer(), responseBody.size());
+      CallStats.recordFetch(
+          host, connectMs, ttfbMs, (System.nanoTime() - headersAt) / 1e6, responseBody.size());
+
+      // Sending the response builds one more copy of the body:
+      lease.reserve((long) responseBody.getBuffer().length + response.estimateSize());
+
+      // Return the socket to the pool before handing back the data:
+      mHttp.release(connection, responseStream);
+      connection = null;
       promise.resolve(response);
-    } catch (Exception error) {
-      promise.reject("Native fetch: " + error.getMessage());
+      if (useCache) {
+        mHttpCache.put(
+            uri, headers, status, responseHeaders, responseBody.getBuffer(), responseBody.size());
+      }
+    } catch (Throwable error) {
+      if (host != null) CallStats.recordFetchError(host);
+
+      // Disconnecting makes the worker fail with a socket error, so report the real reason:
+      String reason = entry.getCancelReason();
+      if (reason != null && shared != null) {
+        // The other requests didn't ask to be cancelled, and have deadlines of their own:
+        shared.release();
+      }
+      promise.reject("Native fetch: " + (reason != null ? reason : error.getMessage()));
     } finally {
+      // Anything left over is in a broken state:
       if (connection != null) connection.disconnect();
+      if (lease != null) lease.close();
+      finishFetch(requestId, entry);
     }
   }
 
-  private native byte[] scrypt(byte[] data, byte[] salt, int n, int r, int p, int dklen);
+  /**
+   * Follows an identical GET that is already running, returning null, or returns the promise that
+   * settles this request and its followers as the leader. A follower stays in the registry under
+   * its own id, so a cancel or deadline drops just that follower.
+   */
+  private @Nullable SharedFetches.Leader joinSharedGet(
+      @NonNull final String key,
+      @NonNull JSONArray args,
+      final int requestId,
+      @NonNull final FetchRegistry.Entry entry,
+      @NonNull final PendingCall promise) {
+    final PendingCall follower =
+        new PendingCall() {
+          @Override
+          public void resolve(Object value) {
+            finishFetch(requestId, entry);
+            promise.resolve(value);
+          }
+
+          @Override
+          public void reject(String message) {
+            finishFetch(requestId, entry);
+            promise.reject(message);
+          }
+        };
+    SharedFetches.Leader leader =
+        mSharedGets.join(
+            key,
+            args,
+            follower,
+            new SharedFetches.Restart() {
+              @Override
+              public void restart(@NonNull JSONArray args, @NonNull PendingCall unused) {
+                // The new attempt registers itself again:
+                finishFetch(requestId, entry);
+                call("fetch", args, promise);
+              }
+            });
+    if (leader != null) return leader;
+
+    Runnable leave =
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mSharedGets.leave(key, follower)) {
+              follower.reject("Native fetch: " + entry.getCancelReason());
+            }
+          }
+        };
+    if (!entry.attach(leave)) leave.run();
+    return null;
+  }
+
+  /** Forgets a fetch once it has settled. */
+  private void finishFetch(int requestId, @NonNull FetchRegistry.Entry entry) {
+    if (requestId >= 0) mFetches.finish(requestId, entry);
+    else entry.clearDeadline();
+  }
+
+  /** Identical GET requests only share a response if they also asked for it the same way. */
+  private static @NonNull String getShareKey(
+      @NonNull String uri,
+      @NonNull JSONObject headers,
+      @NonNull JSONObject opts,
+      boolean useCache) {
+    StringBuilder out = new StringBuilder();
+    out.append(uri).append('\n').append(headers).append('\n').append(useCache);
+    for (String name : SHARE_KEY_OPTS) out.append('\n').append(opts.opt(name));
+    return out.toString();
+  }
+
+  private static @NonNull FetchResponse makeCachedResponse(
+      @NonNull HttpCache.Entry cached, @NonNull String cacheStatus) {
+    FetchResponse response = new FetchResponse(cached.status, cached.headers);
+    response.setCacheStatus(cacheStatus);
+    response.setBody(cached.body, cached.body.length);
+    return response;
+  }
+
+  /** Cancels the streams this view opened. */
+  private void closeStreams() {
+    for (Integer streamId : mStreamIds) {
+      mStreamIds.remove(streamId);
+      FetchStream stream = mStreams.remove(streamId);
+      if (stream != null) stream.cancel();
+    }
+  }
+
+  /**
+   * Reads the first of several paths that exists, the same way `mergeDisklets` would. Throws the
+   * last path's error if none of them exist.
+   */
+  private @NonNull String getFirstText(@NonNull JSONArray paths) throws IOException, JSONException {
+    for (int i = 0; i < paths.length() - 1; ++i) {
+      try {
+        return mDisklet.getText(paths.getString(i));
+      } catch (FileNotFoundException e) {
+        // Try the next one.
+      }
+    }
+    return mDisklet.getText(paths.getString(paths.length() - 1));
+  }
+
+  /**
+   * Reads the changes for a write batch. Each entry is a `{ path, text }` or `{ path, data }`
+   * object, where the data is base64 or raw bytes. An entry with neither deletes the path.
+   */
+  private static @NonNull List<Disklet.Change> getChanges(@NonNull JSONArray entries)
+      throws JSONException {
+    List<Disklet.Change> out = new ArrayList<>(entries.length());
+    for (int i = 0; i < entries.length(); ++i) {
+      JSONObject entry = entries.getJSONObject(i);
+      String path = entry.getString("path");
+      Object data = entry.opt("data");
+      if (entry.has("text")) {
+        byte[] text = entry.getString("text").getBytes(StandardCharsets.UTF_8);
+        out.add(new Disklet.Change(path, text));
+      } else if (data instanceof byte[]) {
+        out.add(new Disklet.Change(path, (byte[]) data));
+      } else if (data instanceof String) {
+        out.add(new Disklet.Change(path, Base64.decode((String) data, Base64.DEFAULT)));
+      } else {
+        out.add(new Disklet.Change(path, null));
+      }
+    }
+    return out;
+  }
+
+  /** Reads the optional `{ prefix, glob, maxEntries, maxBytes }` argument to the tree methods. */
+  private static @NonNull Disklet.TreeFilter getTreeFilter(@Nullable JSONObject opts)
+      throws JSONException {
+    Disklet.TreeFilter filter = new Disklet.TreeFilter();
+    if (opts == null) return filter;
+    if (opts.has("prefix")) filter.prefix = opts.getString("prefix");
+    if (opts.has("glob")) filter.setGlob(opts.getString("glob"));
+    if (opts.has("maxEntries")) filter.maxEntries = opts.getInt("maxEntries");
+    if (opts.has("maxBytes")) filter.maxBytes = opts.getLong("maxBytes");
+    return filter;
+  }
+
+  private static @NonNull JSONObject treeToJson(@NonNull Disklet.TreeResult<String> tree)
+      throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("entries", new JSONObject(tree.entries));
+    out.put("truncated", tree.truncated);
+    return out;
+  }
+
+  /** Reads a binary argument, which arrives either as raw bytes or as base64 text. */
+  private static @NonNull byte[] getBytes(@NonNull JSONArray args, int index)
+      throws JSONException {
+    Object value = args.get(index);
+    if (value instanceof byte[]) return (byte[]) value;
+    return Base64.decode(args.getString(index), Base64.DEFAULT);
+  }
+
+  /** Identifies this app build, so cached benchmarks go stale when the app updates. */
+  private static @NonNull String getAppVersion(@NonNull Context context) {
+    try {
+      PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      return info.versionName + "/" + info.versionCode;
+    } catch (PackageManager.NameNotFoundException e) {
+      return "unknown";
+    }
+  }
+
+  private native byte[] scrypt(
+      byte[] data,
+      byte[] salt,
+      int n,
+      int r,
+      int p,
+      int dklen,
+      int threads,
+      long maxMemory,
+      long maxThreadMemory);
 
   static {
-    System.loadLibrary("edge-core-jni");
+    loadLibrary();
   }
 }
@@ -0,0 +1,156 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A process-wide budget for the native fetch bodies held in memory.
+ *
+ * <p>Each fetch takes out a lease, which grows as its request and response bodies need buffers.
+ * Once the budget is spent, growing blocks until other fetches give memory back, so a burst of
+ * large responses gets buffered a few at a time instead of all at once. A lease may always grow if
+ * it is the only one holding memory, or if everybody else holding memory is waiting too, so big
+ * bodies and circular waits cannot deadlock.
+ *
+ * <p>Separately, no single response body may grow past a size cap, so one huge download fails with
+ * a clear error instead of taking the app down.
+ */
+class FetchMemory {
+  // The biggest array the VM will reliably hand out:
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  // All fields are guarded by the class lock:
+  private static long sInUse;
+  private static long sPeak;
+  private static int sHolders;
+  private static int sWaitingHolders;
+  private static int sWaiting;
+
+  // Metrics:
+  private static long sWaits;
+  private static long sTotalWaitMs;
+  private static long sMaxWaitMs;
+  private static long sTooLarge;
+
+  /** One fetch's share of the budget. */
+  public static class Lease {
+    private final int mMaxBodyBytes;
+    private long mBytes;
+    private boolean mCancelled;
+
+    private Lease(int maxBodyBytes) {
+      mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /** The biggest response body this fetch may buffer. */
+    public int getMaxBodyBytes() {
+      return mMaxBodyBytes;
+    }
+
+    /**
+     * Sets how many bytes this fetch holds. Growing waits until the budget has room, while
+     * shrinking gives memory back right away.
+     */
+    public void reserve(long bytes) throws IOException {
+      synchronized (FetchMemory.class) {
+        if (mCancelled) throw new IOException("Cancelled");
+        if (bytes > mBytes && !fits(bytes - mBytes)) {
+          boolean holder = mBytes > 0;
+          long start = System.currentTimeMillis();
+          ++sWaits;
+          ++sWaiting;
+          if (holder) ++sWaitingHolders;
+
+          // Everybody else might be waiting on us now:
+          FetchMemory.class.notifyAll();
+          try {
+            while (!mCancelled && !fits(bytes - mBytes)) FetchMemory.class.wait();
+          } catch (InterruptedException error) {
+            throw new InterruptedIOException("Interrupted");
+          } finally {
+            --sWaiting;
+            if (holder) --sWaitingHolders;
+            long waitMs = System.currentTimeMillis() - start;
+            sTotalWaitMs += waitMs;
+            if (waitMs > sMaxWaitMs) sMaxWaitMs = waitMs;
+          }
+          if (mCancelled) throw new IOException("Cancelled");
+        }
+        set(bytes);
+      }
+    }
+
+    /** Gives back everything this fetch holds. Safe to call more than once. */
+    public void close() {
+      synchronized (FetchMemory.class) {
+        set(0);
+      }
+    }
+
+    /** Stops any wait for memory, and makes later reservations fail. */
+    public void cancel() {
+      synchronized (FetchMemory.class) {
+        mCancelled = true;
+        FetchMemory.class.notifyAll();
+      }
+    }
+
+    /** Counts and describes a body that went over the cap. */
+    public @NonNull IOException tooLarge() {
+      synchronized (FetchMemory.class) {
+        ++sTooLarge;
+      }
+      return new IOException("Response body is larger than " + mMaxBodyBytes + " bytes");
+    }
+
+    // helpers ---------------------------------------------------------
+
+    private boolean fits(long extra) {
+      long limit = EdgeCoreConfig.sFetchMemoryBytes;
+      return limit <= 0
+          || sInUse + extra <= limit
+          // Nobody else is holding anything:
+          || sInUse == mBytes
+          // Everybody holding memory is stuck, so somebody has to go:
+          || (mBytes > 0 && sWaitingHolders == sHolders);
+    }
+
+    private void set(long bytes) {
+      if (mBytes == 0 && bytes > 0) ++sHolders;
+      if (mBytes > 0 && bytes == 0) --sHolders;
+      boolean shrinking = bytes < mBytes;
+      sInUse += bytes - mBytes;
+      mBytes = bytes;
+      if (sInUse > sPeak) sPeak = sInUse;
+      if (shrinking) FetchMemory.class.notifyAll();
+    }
+  }
+
+  /**
+   * Starts a lease for one fetch, with a cap on its response body. 0 or less means the configured
+   * cap.
+   */
+  public static @NonNull Lease open(long maxBodyBytes) {
+    if (maxBodyBytes <= 0) maxBodyBytes = EdgeCoreConfig.sFetchMaxBodyBytes;
+    if (maxBodyBytes <= 0 || maxBodyBytes > MAX_ARRAY_SIZE) maxBodyBytes = MAX_ARRAY_SIZE;
+    return new Lease((int) maxBodyBytes);
+  }
+
+  public static synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("limit", EdgeCoreConfig.sFetchMemoryBytes);
+    out.put("maxBodyBytes", EdgeCoreConfig.sFetchMaxBodyBytes);
+    out.put("inUse", sInUse);
+    out.put("peak", sPeak);
+    out.put("leases", sHolders);
+    out.put("waiting", sWaiting);
+    out.put("waits", sWaits);
+    out.put("averageWaitMs", sWaits > 0 ? (double) sTotalWaitMs / sWaits : 0);
+    out.put("maxWaitMs", sMaxWaitMs);
+    out.put("tooLarge", sTooLarge);
+    return out;
+  }
+}
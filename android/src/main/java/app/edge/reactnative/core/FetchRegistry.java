@@ -0,0 +1,185 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the native fetches that are still running, so JavaScript can cancel them by id and so
+ * each one can have an overall deadline.
+ *
+ * <p>Cancelling a fetch disconnects its connection from outside the worker thread. That closes the
+ * socket, so whatever blocking call the worker is in fails right away and the thread goes back to
+ * the pool.
+ */
+class FetchRegistry {
+  // Cancels for fetches we haven't seen yet are kept this long, in case the fetch is still queued:
+  private static final long EARLY_CANCEL_MS = 60 * 1000;
+
+  private static final ScheduledThreadPoolExecutor sTimer =
+      new ScheduledThreadPoolExecutor(
+          1,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+              Thread thread = new Thread(runnable, "edge-core-fetch-timer");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private final Map<Integer, Entry> mEntries = new ConcurrentHashMap<>();
+
+  /** One fetch, which may be cancelled at any point in its life. */
+  public static class Entry {
+    private final long mCreated = System.currentTimeMillis();
+    private @Nullable HttpURLConnection mConnection;
+    private @Nullable FetchStream mStream;
+    private @Nullable FetchMemory.Lease mLease;
+    private @Nullable Runnable mOnCancel;
+    private @Nullable ScheduledFuture<?> mTimeout;
+    private @Nullable String mCancelReason;
+
+    /** Returns the reason the fetch was cancelled, or null if it is still alive. */
+    public synchronized @Nullable String getCancelReason() {
+      return mCancelReason;
+    }
+
+    /** Links the entry to its connection, which cancelling will disconnect. */
+    public synchronized boolean attach(@NonNull HttpURLConnection connection) {
+      mConnection = connection;
+      return mCancelReason == null;
+    }
+
+    /** Links the entry to its response stream, which cancelling will stop. */
+    public synchronized boolean attach(@NonNull FetchStream stream) {
+      mStream = stream;
+      return mCancelReason == null;
+    }
+
+    /** Links the entry to its memory lease, so cancelling stops any wait for memory. */
+    public synchronized boolean attach(@NonNull FetchMemory.Lease lease) {
+      mLease = lease;
+      return mCancelReason == null;
+    }
+
+    /** Links the entry to a callback, which cancelling will run. */
+    public synchronized boolean attach(@NonNull Runnable onCancel) {
+      mOnCancel = onCancel;
+      return mCancelReason == null;
+    }
+
+    /** Cancels the fetch after a delay, unless it finishes first. */
+    public synchronized void setDeadline(long delayMs) {
+      clearDeadline();
+      mTimeout =
+          sTimer.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  cancel("Timed out");
+                }
+              },
+              delayMs,
+              TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void clearDeadline() {
+      if (mTimeout != null) mTimeout.cancel(false);
+      mTimeout = null;
+    }
+
+    public void cancel(@NonNull String reason) {
+      HttpURLConnection connection;
+      FetchStream stream;
+      FetchMemory.Lease lease;
+      Runnable onCancel;
+      synchronized (this) {
+        if (mCancelReason != null) return;
+        mCancelReason = reason;
+        connection = mConnection;
+        stream = mStream;
+        lease = mLease;
+        onCancel = mOnCancel;
+        clearDeadline();
+      }
+      if (onCancel != null) onCancel.run();
+      if (lease != null) lease.cancel();
+      if (stream != null) stream.cancel();
+      if (connection != null) connection.disconnect();
+    }
+  }
+
+  /**
+   * Registers a fetch. If JavaScript already cancelled this id while the fetch sat in the queue,
+   * the returned entry starts out cancelled.
+   */
+  public @NonNull Entry start(int id) {
+    Entry entry = new Entry();
+    Entry early = mEntries.put(id, entry);
+    if (early != null && early.getCancelReason() != null) entry.cancel(early.getCancelReason());
+    return entry;
+  }
+
+  /** Forgets a fetch once it can no longer be cancelled. */
+  public void finish(int id, @NonNull Entry entry) {
+    entry.clearDeadline();
+    mEntries.remove(id, entry);
+  }
+
+  /** Cancels a fetch, or remembers the cancel if the fetch has not started yet. */
+  public void cancel(int id) {
+    Entry entry = mEntries.get(id);
+    if (entry == null) {
+      pruneEarlyCancels();
+      entry = new Entry();
+      Entry existing = mEntries.putIfAbsent(id, entry);
+      if (existing != null) entry = existing;
+    }
+    entry.cancel("Cancelled");
+  }
+
+  /**
+   * Cancels and forgets every fetch, such as when the page that started them goes away. The next
+   * page numbers its requests from scratch, so none of the old ids may linger.
+   */
+  public void cancelAll(@NonNull String reason) {
+    for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      it.remove();
+      entry.cancel(reason);
+    }
+  }
+
+  /** Runs a task on the shared fetch timer after a delay. */
+  public static void schedule(@NonNull Runnable task, long delayMs) {
+    sTimer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Returns the number of fetches in flight, including early cancels. */
+  public int size() {
+    return mEntries.size();
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /** Drops early cancels for fetches that must have finished before the cancel arrived. */
+  private void pruneEarlyCancels() {
+    long cutoff = System.currentTimeMillis() - EARLY_CANCEL_MS;
+    for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      synchronized (entry) {
+        if (entry.mConnection == null && entry.mCancelReason != null && entry.mCreated < cutoff) {
+          it.remove();
+        }
+      }
+    }
+  }
+}
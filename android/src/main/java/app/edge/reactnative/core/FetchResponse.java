@@ -0,0 +1,103 @@
+package app.edge.reactnative.core;
+
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The result of a native fetch, matching `NativeFetchResponse` in `native-bridge.ts`.
+ *
+ * <p>The body stays as raw bytes until the response goes out, then gets escaped straight into the
+ * reply buffer. Bodies that are valid UTF-8 go out as text, and anything else as base64.
+ */
+class FetchResponse implements JsonBytes.Writable {
+  // Room for the JSON around the body:
+  private static final int OVERHEAD = 1024;
+
+  private final int mStatus;
+  private final JSONObject mHeaders;
+  private @Nullable byte[] mBody;
+  private int mBodyLength;
+  private boolean mBodyIsText;
+  private @Nullable String mCacheStatus;
+  private int mStreamId = -1;
+
+  public FetchResponse(int status, @NonNull JSONObject headers) {
+    mStatus = status;
+    mHeaders = headers;
+  }
+
+  /** Uses the first `length` bytes of `body`, which must not change afterwards. */
+  public void setBody(@NonNull byte[] body, int length) {
+    mBody = body;
+    mBodyLength = length;
+    mBodyIsText = JsonBytes.isValidUtf8(body, 0, length);
+  }
+
+  public void setCacheStatus(@NonNull String cacheStatus) {
+    mCacheStatus = cacheStatus;
+  }
+
+  public void setStreamId(int streamId) {
+    mStreamId = streamId;
+  }
+
+  public int getBodyLength() {
+    return mBodyLength;
+  }
+
+  @Override
+  public void writeJson(@NonNull JsonBytes out) {
+    out.raw("{\"status\":").raw(Integer.toString(mStatus)).raw(",\"headers\":{");
+    boolean first = true;
+    for (Iterator<String> it = mHeaders.keys(); it.hasNext(); ) {
+      String key = it.next();
+      if (!first) out.raw(",");
+      first = false;
+      out.string(key).raw(":").string(mHeaders.optString(key));
+    }
+    out.raw("}");
+
+    if (mCacheStatus != null) out.raw(",\"cacheStatus\":").string(mCacheStatus);
+    if (mStreamId >= 0) out.raw(",\"streamId\":").raw(Integer.toString(mStreamId));
+    if (mBody != null) {
+      out.raw(",\"body\":");
+      if (mBodyIsText) {
+        out.utf8String(mBody, 0, mBodyLength);
+      } else {
+        byte[] base64 = Base64.encode(mBody, 0, mBodyLength, Base64.NO_WRAP);
+        out.asciiString(base64, 0, base64.length);
+      }
+      out.raw(",\"bodyIsBase64\":").raw(mBodyIsText ? "false" : "true");
+    }
+    out.raw("}");
+  }
+
+  @Override
+  public @NonNull Object toJson() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("status", mStatus);
+    out.put("headers", mHeaders);
+    if (mCacheStatus != null) out.put("cacheStatus", mCacheStatus);
+    if (mStreamId >= 0) out.put("streamId", mStreamId);
+    if (mBody != null) {
+      out.put(
+          "body",
+          mBodyIsText
+              ? new String(mBody, 0, mBodyLength, StandardCharsets.UTF_8)
+              : Base64.encodeToString(mBody, 0, mBodyLength, Base64.NO_WRAP));
+      out.put("bodyIsBase64", !mBodyIsText);
+    }
+    return out;
+  }
+
+  @Override
+  public int estimateSize() {
+    if (mBody == null) return OVERHEAD;
+    return OVERHEAD + (mBodyIsText ? mBodyLength + mBodyLength / 16 : (mBodyLength + 2) / 3 * 4);
+  }
+}
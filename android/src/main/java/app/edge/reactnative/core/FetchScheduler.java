@@ -0,0 +1,244 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Holds native fetches back until they may use the network, so a burst of requests to one host
+ * cannot crowd out everything else.
+ *
+ * <p>Each host may have a limited number of requests in flight, and so may the app as a whole.
+ * Waiting requests sit in per-host queues without holding a thread. When a slot opens, the
+ * highest-priority request that fits goes next, taking turns between hosts at the same priority.
+ * A few global slots are only for high-priority requests, so they never wait behind bulk work.
+ */
+class FetchScheduler {
+  // Global slots only high-priority requests may use:
+  private static final int RESERVED_HIGH_SLOTS = 2;
+
+  private final NativeScheduler mScheduler;
+
+  // Insertion order is the round-robin order, with recently-served hosts moving to the back:
+  private final LinkedHashMap<String, Host> mHosts = new LinkedHashMap<>();
+  private int mInFlight;
+  private int mQueued;
+
+  // Metrics:
+  private long mStarted;
+  private long mWaited;
+  private long mTotalWaitMs;
+  private long mMaxWaitMs;
+  private final Map<NativeScheduler.Priority, Long> mStartedByPriority = new HashMap<>();
+
+  /** A fetch waiting for room, which gets the slot it runs in. */
+  interface Task {
+    void run(@NonNull Slot slot);
+  }
+
+  /** A running fetch's claim on the limits, which goes back when the task returns. */
+  class Slot {
+    private final String mHost;
+    private boolean mHostReleased;
+
+    Slot(@NonNull String host) {
+      mHost = host;
+    }
+
+    /**
+     * Lets the next request to this host start while this one keeps going, such as once only a
+     * streamed body is left. The fetch still counts against the app-wide limit until it returns.
+     */
+    public void releaseHost() {
+      synchronized (FetchScheduler.this) {
+        if (!dropHost()) return;
+      }
+      dispatch();
+    }
+
+    /** Gives back the per-host slot, if that hasn't happened yet. Needs the scheduler's lock. */
+    private boolean dropHost() {
+      if (mHostReleased) return false;
+      mHostReleased = true;
+      Host entry = mHosts.get(mHost);
+      if (entry != null) {
+        --entry.inFlight;
+        if (entry.isIdle()) mHosts.remove(mHost);
+      }
+      return true;
+    }
+  }
+
+  private static class Host {
+    final ArrayDeque<Waiter>[] queues = newQueues();
+    int inFlight;
+
+    boolean isIdle() {
+      if (inFlight > 0) return false;
+      for (ArrayDeque<Waiter> queue : queues) if (!queue.isEmpty()) return false;
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Waiter>[] newQueues() {
+      ArrayDeque<Waiter>[] out = new ArrayDeque[NativeScheduler.Priority.values().length];
+      for (int i = 0; i < out.length; ++i) out[i] = new ArrayDeque<>();
+      return out;
+    }
+  }
+
+  private static class Waiter {
+    final String host;
+    final NativeScheduler.Priority priority;
+    final PendingCall promise;
+    final Task task;
+    final long queuedAt = System.currentTimeMillis();
+
+    Waiter(
+        @NonNull String host,
+        @NonNull NativeScheduler.Priority priority,
+        @NonNull PendingCall promise,
+        @NonNull Task task) {
+      this.host = host;
+      this.priority = priority;
+      this.promise = promise;
+      this.task = task;
+    }
+  }
+
+  public FetchScheduler(@NonNull NativeScheduler scheduler) {
+    mScheduler = scheduler;
+  }
+
+  /**
+   * Runs a fetch on the network lane once its host and the app have room for it. The task must
+   * not outlive its slot: the scheduler releases the slot when the task returns, unless the task
+   * gives back its host's share sooner.
+   */
+  public void submit(
+      @NonNull String host,
+      @NonNull NativeScheduler.Priority priority,
+      @NonNull PendingCall promise,
+      @NonNull Task task) {
+    synchronized (this) {
+      Host entry = mHosts.get(host);
+      if (entry == null) {
+        entry = new Host();
+        mHosts.put(host, entry);
+      }
+      entry.queues[priority.ordinal()].add(new Waiter(host, priority, promise, task));
+      ++mQueued;
+    }
+    dispatch();
+  }
+
+  public synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("inFlight", mInFlight);
+    out.put("queued", mQueued);
+    out.put("hosts", mHosts.size());
+    out.put("started", mStarted);
+    out.put("waited", mWaited);
+    out.put("averageWaitMs", mStarted > 0 ? (double) mTotalWaitMs / mStarted : 0);
+    out.put("maxWaitMs", mMaxWaitMs);
+    JSONObject byPriority = new JSONObject();
+    for (Map.Entry<NativeScheduler.Priority, Long> item : mStartedByPriority.entrySet()) {
+      byPriority.put(item.getKey().name().toLowerCase(), item.getValue());
+    }
+    out.put("startedByPriority", byPriority);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /** Starts as many waiting fetches as the limits allow. */
+  private void dispatch() {
+    while (true) {
+      final Waiter waiter;
+      final Slot slot;
+      synchronized (this) {
+        waiter = next();
+        if (waiter == null) return;
+        long waitMs = System.currentTimeMillis() - waiter.queuedAt;
+        ++mStarted;
+        if (waitMs > 0) ++mWaited;
+        mTotalWaitMs += waitMs;
+        if (waitMs > mMaxWaitMs) mMaxWaitMs = waitMs;
+        Long count = mStartedByPriority.get(waiter.priority);
+        mStartedByPriority.put(waiter.priority, count != null ? count + 1 : 1);
+        slot = new Slot(waiter.host);
+      }
+
+      boolean queued =
+          mScheduler.execute(
+              NativeScheduler.Lane.NETWORK,
+              waiter.priority,
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    waiter.task.run(slot);
+                  } finally {
+                    finish(slot);
+                  }
+                }
+              });
+      if (!queued) {
+        release(slot);
+        waiter.promise.reject("Native network lane has shut down");
+      }
+    }
+  }
+
+  private void finish(@NonNull Slot slot) {
+    release(slot);
+    dispatch();
+  }
+
+  private synchronized void release(@NonNull Slot slot) {
+    --mInFlight;
+    slot.dropHost();
+  }
+
+  /**
+   * Picks the next fetch to start and claims its slots, or returns null if nothing fits. Hosts
+   * take turns within a priority, so one busy host cannot starve the others.
+   */
+  private Waiter next() {
+    int maxInFlight =
+        Math.min(
+            EdgeCoreConfig.sFetchMaxInFlight,
+            mScheduler.getLaneSize(NativeScheduler.Lane.NETWORK));
+    int maxPerHost = EdgeCoreConfig.sFetchMaxPerHost;
+    if (mInFlight >= maxInFlight) return null;
+
+    int reserved = Math.min(RESERVED_HIGH_SLOTS, maxInFlight - 1);
+    for (NativeScheduler.Priority priority : NativeScheduler.Priority.values()) {
+      // Bulk work leaves some room for urgent requests:
+      if (priority != NativeScheduler.Priority.HIGH && mInFlight >= maxInFlight - reserved) break;
+
+      for (Iterator<Map.Entry<String, Host>> it = mHosts.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Host> item = it.next();
+        Host host = item.getValue();
+        ArrayDeque<Waiter> queue = host.queues[priority.ordinal()];
+        if (queue.isEmpty() || host.inFlight >= maxPerHost) continue;
+
+        Waiter out = queue.poll();
+        --mQueued;
+        ++mInFlight;
+        ++host.inFlight;
+
+        // Send this host to the back of the line:
+        it.remove();
+        mHosts.put(item.getKey(), host);
+        return out;
+      }
+    }
+    return null;
+  }
+}
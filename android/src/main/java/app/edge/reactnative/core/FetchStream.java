@@ -0,0 +1,203 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Hands a response body to JavaScript one chunk at a time.
+ *
+ * <p>A network worker pumps the body into a small read-ahead queue, and JavaScript pulls chunks out
+ * with `fetchStreamRead`. Once the queue is full, the pump stops reading from the socket, so a
+ * paused reader also pauses the download. If nobody reads for a while, the stream cancels itself
+ * so it cannot pin a worker thread forever.
+ *
+ * <p>The body can end while chunks are still queued, so the stream outlives its pump. It reports
+ * when it is closed, either by handing out its final read or by being cancelled, so the caller
+ * knows when to forget it.
+ */
+class FetchStream {
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_QUEUED_CHUNKS = 4;
+  private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+  private final ArrayDeque<byte[]> mChunks = new ArrayDeque<>();
+  private final @Nullable Runnable mOnClosed;
+  private @Nullable PendingCall mReader;
+  private boolean mCancelled;
+  private boolean mDone;
+  private boolean mClosed;
+  private long mLastRead = System.currentTimeMillis();
+  private @Nullable String mError;
+
+  /** @param onClosed runs once the stream has nothing left to hand out. */
+  public FetchStream(@Nullable Runnable onClosed) {
+    mOnClosed = onClosed;
+  }
+
+  /**
+   * Copies the body into the queue until it ends.
+   *
+   * @return false if the stream failed or was cancelled before the body ended.
+   */
+  public boolean pump(@NonNull InputStream in) {
+    try {
+      byte[] buffer = new byte[CHUNK_SIZE];
+      int used = 0;
+      int size;
+      while ((size = in.read(buffer, used, buffer.length - used)) >= 0) {
+        used += size;
+
+        // Coalesce small reads, unless somebody is already waiting:
+        if (used < buffer.length && !hasReader()) continue;
+        if (!push(Arrays.copyOf(buffer, used))) return false;
+        used = 0;
+      }
+      if (used > 0 && !push(Arrays.copyOf(buffer, used))) return false;
+      finish(null);
+      return true;
+    } catch (IOException error) {
+      finish("Native fetch: " + error.getMessage());
+      return false;
+    } catch (InterruptedException error) {
+      finish("Native fetch: Interrupted");
+      return false;
+    }
+  }
+
+  /**
+   * Resolves with the next chunk of bytes, or with null once the body has ended. Only one read
+   * may be outstanding at a time.
+   */
+  public void read(@NonNull PendingCall promise) {
+    byte[] chunk;
+    String error = null;
+    synchronized (this) {
+      mLastRead = System.currentTimeMillis();
+      chunk = mChunks.poll();
+      if (chunk == null) {
+        if (mError != null || mDone || mCancelled) {
+          error = mError;
+        } else if (mReader != null) {
+          promise.reject("Fetch stream already has a pending read");
+          return;
+        } else {
+          mReader = promise;
+          return;
+        }
+      } else {
+        notifyAll();
+      }
+    }
+    if (chunk != null) {
+      promise.resolve(chunk);
+      return;
+    }
+
+    // This is the final read:
+    if (error != null) promise.reject(error);
+    else promise.resolve(null);
+    close();
+  }
+
+  /** Stops the pump and drops any queued data. */
+  public void cancel() {
+    PendingCall reader;
+    synchronized (this) {
+      mCancelled = true;
+      mChunks.clear();
+      reader = mReader;
+      mReader = null;
+      notifyAll();
+    }
+    if (reader != null) reader.resolve(null);
+    close();
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private synchronized boolean hasReader() {
+    return mReader != null;
+  }
+
+  /** Queues a chunk, blocking while the queue is full. Returns false if cancelled. */
+  private boolean push(@NonNull byte[] chunk) throws InterruptedException {
+    PendingCall reader = null;
+    boolean timedOut = false;
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MS;
+      while (!mCancelled && mChunks.size() >= MAX_QUEUED_CHUNKS) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          timedOut = true;
+          break;
+        }
+        wait(remaining);
+      }
+
+      if (!timedOut && !mCancelled) {
+        reader = mReader;
+        mReader = null;
+        if (reader == null) {
+          mChunks.add(chunk);
+          return true;
+        }
+      }
+    }
+    if (reader == null) {
+      // Nobody read in time:
+      if (timedOut) cancel();
+      return false;
+    }
+    reader.resolve(chunk);
+    return true;
+  }
+
+  private void finish(@Nullable String error) {
+    PendingCall reader;
+    synchronized (this) {
+      mDone = true;
+      mError = error;
+      reader = mReader;
+      mReader = null;
+    }
+    if (reader == null) {
+      // The reader still has chunks to collect, but shouldn't take forever:
+      scheduleIdleCheck(IDLE_TIMEOUT_MS);
+      return;
+    }
+    if (error != null) reader.reject(error);
+    else reader.resolve(null);
+    close();
+  }
+
+  /** Cancels the stream if its reader has gone quiet after the body ended. */
+  private void scheduleIdleCheck(long delayMs) {
+    FetchRegistry.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            long remaining;
+            synchronized (FetchStream.this) {
+              if (mClosed) return;
+              remaining = mLastRead + IDLE_TIMEOUT_MS - System.currentTimeMillis();
+            }
+            if (remaining > 0) scheduleIdleCheck(remaining);
+            else cancel();
+          }
+        },
+        delayMs);
+  }
+
+  /** Reports the stream as closed, once. */
+  private void close() {
+    synchronized (this) {
+      if (mClosed) return;
+      mClosed = true;
+    }
+    if (mOnClosed != null) mOnClosed.run();
+  }
+}
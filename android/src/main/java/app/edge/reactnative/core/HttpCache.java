@@ -0,0 +1,411 @@
+package app.edge.reactnative.core;
+
+import android.util.AtomicFile;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An on-disk cache for GET responses, following the usual HTTP rules.
+ *
+ * <p>Responses stay fresh for their `Cache-Control: max-age` or `Expires` lifetime. After that, or
+ * with `no-cache`, the cache sends the stored `ETag` or `Last-Modified` value back to the server,
+ * and a 304 reply lets it reuse the stored body. Responses with `no-store`, `Vary: *`, or no way to
+ * check freshness are never stored.
+ *
+ * <p>Each response lives in its own file, named by a hash of its URL. The cache evicts the least
+ * recently used files once they pass the `EdgeCoreConfig` size limit.
+ */
+class HttpCache {
+  // A single response may use this fraction of the cache:
+  private static final int MAX_ENTRY_FRACTION = 8;
+
+  private final File mDir;
+  private final LinkedHashMap<String, Long> mSizes = new LinkedHashMap<>(64, 0.75f, true);
+  private boolean mLoaded;
+  private long mBytes;
+  private long mHits;
+  private long mRevalidations;
+  private long mMisses;
+  private long mStores;
+  private long mEvictions;
+
+  /** A stored response. */
+  public static class Entry {
+    final String name;
+    final int status;
+    final JSONObject headers;
+    final byte[] body;
+    final JSONObject vary;
+    final long storedAt;
+
+    Entry(
+        @NonNull String name,
+        int status,
+        @NonNull JSONObject headers,
+        @NonNull byte[] body,
+        @NonNull JSONObject vary,
+        long storedAt) {
+      this.name = name;
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+      this.vary = vary;
+      this.storedAt = storedAt;
+    }
+
+    /** True if we can use the entry without asking the server. */
+    public boolean isFresh(long now) {
+      CacheControl control = new CacheControl(getHeader(headers, "Cache-Control"));
+      if (control.noCache) return false;
+      long lifetime = getLifetimeMs(headers, control);
+      return lifetime > 0 && now - storedAt < lifetime;
+    }
+
+    /** Adds `If-None-Match` and `If-Modified-Since` headers, so the server can reply with 304. */
+    public void addValidators(@NonNull JSONObject requestHeaders) throws JSONException {
+      String etag = getHeader(headers, "ETag");
+      String lastModified = getHeader(headers, "Last-Modified");
+      if (etag != null && getHeader(requestHeaders, "If-None-Match") == null) {
+        requestHeaders.put("If-None-Match", etag);
+      }
+      if (lastModified != null && getHeader(requestHeaders, "If-Modified-Since") == null) {
+        requestHeaders.put("If-Modified-Since", lastModified);
+      }
+    }
+  }
+
+  public HttpCache(@NonNull File dir) {
+    mDir = dir;
+  }
+
+  /** Finds the stored response for a request, if any. Call `hit` or `miss` afterwards. */
+  public synchronized @Nullable Entry get(@NonNull String uri, @NonNull JSONObject requestHeaders) {
+    load();
+    String name = getName(uri);
+    if (mSizes.get(name) == null) return null;
+
+    try {
+      Entry entry = readEntry(name);
+      if (!matchesVary(entry, requestHeaders)) return null;
+      return entry;
+    } catch (IOException | JSONException error) {
+      remove(name);
+      return null;
+    }
+  }
+
+  /** Counts a response served from the cache, and marks it as recently used. */
+  public synchronized void hit(@NonNull Entry entry, boolean revalidated) {
+    if (revalidated) ++mRevalidations;
+    else ++mHits;
+    new File(mDir, entry.name).setLastModified(System.currentTimeMillis());
+  }
+
+  public synchronized void miss() {
+    ++mMisses;
+  }
+
+  /**
+   * Refreshes a stored response after the server says it hasn't changed. The 304 reply's headers
+   * replace the stored ones, since they may carry a new lifetime or validator.
+   *
+   * @return the updated entry.
+   */
+  public synchronized @NonNull Entry revalidate(
+      @NonNull Entry entry, @NonNull JSONObject notModifiedHeaders) throws JSONException {
+    JSONObject headers = new JSONObject(entry.headers.toString());
+    for (Iterator<String> it = notModifiedHeaders.keys(); it.hasNext(); ) {
+      String key = it.next();
+      if ("Content-Length".equalsIgnoreCase(key)) continue;
+      removeHeader(headers, key);
+      headers.put(key, notModifiedHeaders.get(key));
+    }
+    Entry out =
+        new Entry(
+            entry.name, entry.status, headers, entry.body, entry.vary, System.currentTimeMillis());
+    try {
+      writeEntry(out);
+    } catch (IOException error) {
+      remove(entry.name);
+    }
+    return out;
+  }
+
+  /**
+   * Stores the first `length` bytes of a response body, if the HTTP rules allow it. The cache may
+   * keep the array, so it must not change afterwards.
+   */
+  public synchronized void put(
+      @NonNull String uri,
+      @NonNull JSONObject requestHeaders,
+      int status,
+      @NonNull JSONObject headers,
+      @NonNull byte[] body,
+      int length)
+      throws JSONException {
+    long maxBytes = EdgeCoreConfig.sHttpCacheBytes;
+    if (!isCacheable(requestHeaders, status, headers)) return;
+    if (length > maxBytes / MAX_ENTRY_FRACTION) return;
+    if (length != body.length) body = Arrays.copyOf(body, length);
+
+    // Remember the request headers the response depends on:
+    JSONObject vary = new JSONObject();
+    String varyHeader = getHeader(headers, "Vary");
+    if (varyHeader != null) {
+      for (String name : varyHeader.split(",")) {
+        name = name.trim().toLowerCase(Locale.ROOT);
+        if (name.length() == 0) continue;
+        String value = getHeader(requestHeaders, name);
+        vary.put(name, value != null ? value : "");
+      }
+    }
+
+    load();
+    String name = getName(uri);
+    Entry entry = new Entry(name, status, headers, body, vary, System.currentTimeMillis());
+    try {
+      writeEntry(entry);
+      ++mStores;
+    } catch (IOException error) {
+      remove(name);
+    }
+    trim(maxBytes);
+  }
+
+  public synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("entries", mSizes.size());
+    out.put("bytes", mBytes);
+    out.put("hits", mHits);
+    out.put("revalidations", mRevalidations);
+    out.put("misses", mMisses);
+    out.put("stores", mStores);
+    out.put("evictions", mEvictions);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /** Indexes the files on disk, oldest first, the first time we need them. */
+  private void load() {
+    if (mLoaded) return;
+    mLoaded = true;
+    File[] files = mDir.listFiles();
+    if (files == null) return;
+    Arrays.sort(
+        files,
+        new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            return Long.compare(a.lastModified(), b.lastModified());
+          }
+        });
+    for (File file : files) {
+      // AtomicFile leaves these behind if we crash mid-write:
+      if (file.getName().endsWith(".new") || file.getName().endsWith(".bak")) continue;
+      mSizes.put(file.getName(), file.length());
+      mBytes += file.length();
+    }
+  }
+
+  private void trim(long maxBytes) {
+    for (Iterator<Map.Entry<String, Long>> it = mSizes.entrySet().iterator();
+        it.hasNext() && mBytes > maxBytes; ) {
+      Map.Entry<String, Long> item = it.next();
+      new AtomicFile(new File(mDir, item.getKey())).delete();
+      mBytes -= item.getValue();
+      ++mEvictions;
+      it.remove();
+    }
+  }
+
+  private void remove(@NonNull String name) {
+    Long size = mSizes.remove(name);
+    if (size != null) mBytes -= size;
+    new AtomicFile(new File(mDir, name)).delete();
+  }
+
+  /** Each file holds a length-prefixed JSON header, followed by the body. */
+  private @NonNull Entry readEntry(@NonNull String name) throws IOException, JSONException {
+    byte[] data = new AtomicFile(new File(mDir, name)).readFully();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    byte[] metaData = new byte[in.readInt()];
+    in.readFully(metaData);
+    JSONObject meta = new JSONObject(new String(metaData, StandardCharsets.UTF_8));
+    byte[] body = Arrays.copyOfRange(data, 4 + metaData.length, data.length);
+    return new Entry(
+        name,
+        meta.getInt("status"),
+        meta.getJSONObject("headers"),
+        body,
+        meta.getJSONObject("vary"),
+        meta.getLong("storedAt"));
+  }
+
+  private void writeEntry(@NonNull Entry entry) throws IOException, JSONException {
+    JSONObject meta = new JSONObject();
+    meta.put("status", entry.status);
+    meta.put("headers", entry.headers);
+    meta.put("vary", entry.vary);
+    meta.put("storedAt", entry.storedAt);
+    byte[] metaData = meta.toString().getBytes(StandardCharsets.UTF_8);
+
+    if (!mDir.exists()) mDir.mkdirs();
+    AtomicFile file = new AtomicFile(new File(mDir, entry.name));
+    FileOutputStream stream = file.startWrite();
+    try {
+      DataOutputStream out = new DataOutputStream(stream);
+      out.writeInt(metaData.length);
+      out.write(metaData);
+      out.write(entry.body);
+      out.flush();
+      file.finishWrite(stream);
+    } catch (IOException error) {
+      file.failWrite(stream);
+      throw error;
+    }
+
+    Long oldSize = mSizes.put(entry.name, (long) (4 + metaData.length + entry.body.length));
+    if (oldSize != null) mBytes -= oldSize;
+    mBytes += 4 + metaData.length + entry.body.length;
+  }
+
+  private static boolean matchesVary(@NonNull Entry entry, @NonNull JSONObject requestHeaders)
+      throws JSONException {
+    for (Iterator<String> it = entry.vary.keys(); it.hasNext(); ) {
+      String name = it.next();
+      String value = getHeader(requestHeaders, name);
+      if (!entry.vary.getString(name).equals(value != null ? value : "")) return false;
+    }
+    return true;
+  }
+
+  private static boolean isCacheable(
+      @NonNull JSONObject requestHeaders, int status, @NonNull JSONObject headers) {
+    if (status != 200) return false;
+
+    // Keep credentials out of the disk cache:
+    if (getHeader(requestHeaders, "Authorization") != null) return false;
+    if (new CacheControl(getHeader(requestHeaders, "Cache-Control")).noStore) return false;
+
+    CacheControl control = new CacheControl(getHeader(headers, "Cache-Control"));
+    if (control.noStore) return false;
+    String vary = getHeader(headers, "Vary");
+    if (vary != null && vary.trim().equals("*")) return false;
+
+    // We need either a lifetime or a way to revalidate:
+    return getLifetimeMs(headers, control) > 0
+        || getHeader(headers, "ETag") != null
+        || getHeader(headers, "Last-Modified") != null;
+  }
+
+  /** How long a response stays fresh, counting from when we received it. */
+  private static long getLifetimeMs(@NonNull JSONObject headers, @NonNull CacheControl control) {
+    long lifetime;
+    if (control.maxAge >= 0) {
+      lifetime = control.maxAge * 1000;
+    } else {
+      long expires = parseDate(getHeader(headers, "Expires"));
+      if (expires < 0) return 0;
+      long date = parseDate(getHeader(headers, "Date"));
+      lifetime = expires - (date >= 0 ? date : System.currentTimeMillis());
+    }
+
+    // Upstream caches may have held the response for a while already:
+    String age = getHeader(headers, "Age");
+    if (age != null) {
+      try {
+        lifetime -= Long.parseLong(age.trim()) * 1000;
+      } catch (NumberFormatException error) {
+        // Ignore a malformed age.
+      }
+    }
+    return lifetime;
+  }
+
+  private static long parseDate(@Nullable String date) {
+    if (date == null) return -1;
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      Date out = format.parse(date);
+      return out != null ? out.getTime() : -1;
+    } catch (ParseException error) {
+      return -1;
+    }
+  }
+
+  /** Header names are case-insensitive. */
+  static @Nullable String getHeader(@NonNull JSONObject headers, @NonNull String name) {
+    for (Iterator<String> it = headers.keys(); it.hasNext(); ) {
+      String key = it.next();
+      if (key.equalsIgnoreCase(name)) return headers.optString(key, null);
+    }
+    return null;
+  }
+
+  static void removeHeader(@NonNull JSONObject headers, @NonNull String name) {
+    for (Iterator<String> it = headers.keys(); it.hasNext(); ) {
+      if (it.next().equalsIgnoreCase(name)) it.remove();
+    }
+  }
+
+  private static @NonNull String getName(@NonNull String uri) {
+    try {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      byte[] hash = sha256.digest(uri.getBytes(StandardCharsets.UTF_8));
+      StringBuilder out = new StringBuilder(2 * hash.length);
+      for (byte b : hash) out.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+      return out.toString();
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /** The parts of a `Cache-Control` header we care about. */
+  private static class CacheControl {
+    boolean noCache;
+    boolean noStore;
+    long maxAge = -1;
+
+    CacheControl(@Nullable String header) {
+      if (header == null) return;
+      for (String directive : header.split(",")) {
+        directive = directive.trim().toLowerCase(Locale.ROOT);
+        if (directive.equals("no-cache")) {
+          noCache = true;
+        } else if (directive.equals("no-store")) {
+          noStore = true;
+        } else if (directive.startsWith("max-age=")) {
+          try {
+            maxAge = Long.parseLong(directive.substring(8).replace("\"", ""));
+          } catch (NumberFormatException error) {
+            // A malformed max-age means the response is already stale:
+            maxAge = 0;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds JSON text as UTF-8 bytes in a single growing buffer.
+ *
+ * <p>Strings that are already valid UTF-8, such as response bodies, get escaped straight from their
+ * bytes into the buffer, without ever becoming Java strings. The output is also safe to paste into
+ * a script, since it escapes U+2028 and U+2029, which JavaScript treats as line breaks.
+ *
+ * <p>The buffer can start with some blank space, so the caller can fill in a frame header later
+ * without copying the whole thing again.
+ */
+class JsonBytes extends ByteArrayOutputStream {
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  /** Something that can write itself as JSON, without building intermediate strings. */
+  interface Writable {
+    void writeJson(@NonNull JsonBytes out);
+
+    /** Guesses how many bytes `writeJson` will produce, so the buffer rarely needs to grow. */
+    int estimateSize();
+
+    /** Returns an equivalent `JSONObject` or other `org.json` value, for everybody else. */
+    @NonNull
+    Object toJson() throws org.json.JSONException;
+  }
+
+  public JsonBytes(int size, int headerSize) {
+    super(Math.max(size, headerSize));
+    count = headerSize;
+  }
+
+  /** Exposes the buffer, which is only valid up to `size()`. */
+  public @NonNull byte[] getBuffer() {
+    return buf;
+  }
+
+  public @NonNull JsonBytes raw(@NonNull String text) {
+    byte[] data = text.getBytes(StandardCharsets.UTF_8);
+    write(data, 0, data.length);
+    return this;
+  }
+
+  public @NonNull JsonBytes string(@NonNull String text) {
+    byte[] data = text.getBytes(StandardCharsets.UTF_8);
+    return utf8String(data, 0, data.length);
+  }
+
+  /** Writes bytes that need no escaping, such as base64, as a quoted string. */
+  public @NonNull JsonBytes asciiString(@NonNull byte[] data, int offset, int length) {
+    ensure(length + 2);
+    buf[count++] = '"';
+    System.arraycopy(data, offset, buf, count, length);
+    count += length;
+    buf[count++] = '"';
+    return this;
+  }
+
+  /** Writes valid UTF-8 as a quoted, escaped string. */
+  public @NonNull JsonBytes utf8String(@NonNull byte[] data, int offset, int length) {
+    // Most text needs little escaping, so this usually allocates once:
+    ensure(length + length / 16 + 2);
+    buf[count++] = '"';
+    int end = offset + length;
+    int run = offset;
+    for (int i = offset; i < end; ++i) {
+      int b = data[i] & 0xff;
+      boolean lineSeparator =
+          b == 0xe2 && i + 2 < end && data[i + 1] == (byte) 0x80 && (data[i + 2] & 0xfe) == 0xa8;
+      if (b >= 0x20 && b != '"' && b != '\\' && !lineSeparator) continue;
+
+      // Copy the clean run, then the escape:
+      write(data, run, i - run);
+      ensure(6);
+      buf[count++] = '\\';
+      switch (b) {
+        case '"':
+        case '\\':
+          buf[count++] = (byte) b;
+          break;
+        case '\n':
+          buf[count++] = 'n';
+          break;
+        case '\r':
+          buf[count++] = 'r';
+          break;
+        case '\t':
+          buf[count++] = 't';
+          break;
+        default:
+          {
+            int c = lineSeparator ? 0x2028 | (data[i + 2] & 1) : b;
+            buf[count++] = 'u';
+            buf[count++] = HEX[c >> 12];
+            buf[count++] = HEX[(c >> 8) & 0xf];
+            buf[count++] = HEX[(c >> 4) & 0xf];
+            buf[count++] = HEX[c & 0xf];
+            if (lineSeparator) i += 2;
+          }
+      }
+      run = i + 1;
+    }
+    write(data, run, end - run);
+    ensure(1);
+    buf[count++] = '"';
+    return this;
+  }
+
+  /**
+   * Checks for well-formed UTF-8, rejecting overlong forms, surrogates, and code points past
+   * U+10FFFF, just like a strict decoder would, but without producing any characters.
+   */
+  public static boolean isValidUtf8(@NonNull byte[] data, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      int b = data[i] & 0xff;
+      if (b < 0x80) {
+        ++i;
+        continue;
+      }
+
+      int size;
+      int min;
+      int c;
+      if (b >= 0xc2 && b <= 0xdf) {
+        size = 2;
+        min = 0x80;
+        c = b & 0x1f;
+      } else if (b >= 0xe0 && b <= 0xef) {
+        size = 3;
+        min = 0x800;
+        c = b & 0x0f;
+      } else if (b >= 0xf0 && b <= 0xf4) {
+        size = 4;
+        min = 0x10000;
+        c = b & 0x07;
+      } else {
+        return false;
+      }
+      if (i + size > end) return false;
+      for (int j = 1; j < size; ++j) {
+        int next = data[i + j] & 0xff;
+        if ((next & 0xc0) != 0x80) return false;
+        c = (c << 6) | (next & 0x3f);
+      }
+      if (c < min || c > 0x10ffff || (c >= 0xd800 && c <= 0xdfff)) return false;
+      i += size;
+    }
+    return true;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private void ensure(int extra) {
+    if (count + extra <= buf.length) return;
+    byte[] bigger = new byte[Math.max(buf.length * 2, count + extra)];
+    System.arraycopy(buf, 0, bigger, 0, count);
+    buf = bigger;
+  }
+}
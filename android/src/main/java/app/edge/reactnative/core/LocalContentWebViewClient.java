@@ -1,5 +1,6 @@
 package app.edge.reactnative.core;
 
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
@@ -36,6 +37,18 @@ class LocalContentWebViewClient extends WebViewClient {
     mWebView.visitPage();
   }
 
+  @Override
+  public void onPageStarted(WebView view, String url, Bitmap favicon) {
+    // Reloads start their request ids over:
+    mWebView.startPage();
+  }
+
+  @Override
+  public void onPageFinished(WebView view, String url) {
+    // The page's scripts are listening by now:
+    mWebView.openBinaryChannel(url);
+  }
+
   @Override
   @RequiresApi(21)
   public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
@@ -54,7 +67,7 @@ class LocalContentWebViewClient extends WebViewClient {
     String resourcePath = path.startsWith("/") ? path.substring(1) : path;
 
     // Serve the file with COOP/COEP headers
-    return mWebView.serveFileWithHeaders(resourcePath);
+    return mWebView.serveFileWithHeaders(resourcePath, request.getRequestHeaders());
   }
 
   // For API < 21, use the deprecated method
@@ -74,6 +87,6 @@ class LocalContentWebViewClient extends WebViewClient {
     }
     String resourcePath = path.startsWith("/") ? path.substring(1) : path;
 
-    return mWebView.serveFileWithHeaders(resourcePath);
+    return mWebView.serveFileWithHeaders(resourcePath, null);
   }
 }
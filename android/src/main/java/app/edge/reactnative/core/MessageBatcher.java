@@ -0,0 +1,114 @@
+package app.edge.reactnative.core;
+
+import android.webkit.WebView;
+import androidx.annotation.NonNull;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Gathers the messages a page posts to React Native, and delivers them together as one `onMessage`
+ * event. A burst of yaob updates then crosses the React Native bridge once, in order.
+ *
+ * <p>A batch goes out on the UI thread's next turn, or after the configured delay, or as soon as
+ * it reaches the configured size, whichever comes first. Like ScriptBatcher, this stays off frame
+ * callbacks, which stop while the screen is off. A batch of one keeps the plain `{ message }` event
+ * shape, while bigger batches arrive as `{ messages: [...] }`.
+ */
+class MessageBatcher {
+  // Shared by every WebView:
+  private static long sEvents;
+  private static long sMessages;
+  private static int sLargestBatch;
+
+  /** Sends one finished event across the React Native bridge. */
+  interface Sink {
+    void emit(@NonNull WritableMap event);
+  }
+
+  private final WebView mWebView;
+  private final Sink mSink;
+  private List<String> mMessages = new ArrayList<>();
+  private boolean mScheduled;
+  private boolean mClosed;
+
+  public MessageBatcher(@NonNull WebView webView, @NonNull Sink sink) {
+    mWebView = webView;
+    mSink = sink;
+  }
+
+  /** Queues a message. May be called from any thread. */
+  public void add(@NonNull String message) {
+    int maxSize = EdgeCoreConfig.sMessageBatchSize;
+    boolean flushNow;
+    boolean schedule;
+    synchronized (this) {
+      if (mClosed) return;
+      mMessages.add(message);
+      flushNow = mMessages.size() >= maxSize;
+      schedule = !mScheduled;
+      mScheduled = true;
+    }
+
+    if (flushNow) {
+      mWebView.post(mFlush);
+    } else if (schedule) {
+      int delayMs = EdgeCoreConfig.sMessageBatchDelayMs;
+      if (delayMs > 0) mWebView.postDelayed(mFlush, delayMs);
+      else mWebView.post(mFlush);
+    }
+  }
+
+  /** Drops any queued messages and ignores later ones, once the WebView is gone. */
+  public synchronized void close() {
+    mClosed = true;
+    mMessages = new ArrayList<>();
+  }
+
+  /** Reports how many messages each event carried. */
+  public static synchronized @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    out.put("events", sEvents);
+    out.put("messages", sMessages);
+    out.put("largestBatch", sLargestBatch);
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  // Always runs on the UI thread, so batches go out in order:
+  private final Runnable mFlush =
+      new Runnable() {
+        @Override
+        public void run() {
+          List<String> messages;
+          synchronized (MessageBatcher.this) {
+            mScheduled = false;
+            if (mMessages.isEmpty()) return;
+            messages = mMessages;
+            mMessages = new ArrayList<>();
+          }
+          record(messages.size());
+
+          WritableMap event = Arguments.createMap();
+          if (messages.size() == 1) {
+            event.putString("message", messages.get(0));
+          } else {
+            WritableArray array = Arguments.createArray();
+            for (String message : messages) array.pushString(message);
+            event.putArray("messages", array);
+          }
+          mSink.emit(event);
+        }
+      };
+
+  private static synchronized void record(int count) {
+    ++sEvents;
+    sMessages += count;
+    if (count > sLargestBatch) sLargestBatch = count;
+  }
+}
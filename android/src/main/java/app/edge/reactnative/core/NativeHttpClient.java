@@ -0,0 +1,238 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A long-lived HTTP client shared by every native fetch.
+ *
+ * <p>The platform only pools keep-alive connections made with the same SSL socket factory, so
+ * sharing one factory lets requests to the same host reuse sockets. The factory's session cache
+ * also lets new connections resume earlier TLS sessions instead of doing a full handshake.
+ */
+class NativeHttpClient {
+  private static final int SESSION_CACHE_SIZE = 256;
+  private static final int SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+  /**
+   * The encodings `decode` understands. The platform has no brotli decoder, so we leave that out
+   * rather than bundle one.
+   */
+  public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  private final CountingSocketFactory mSocketFactory;
+  private final AtomicLong mRequests = new AtomicLong();
+  private final AtomicLong mHttpsRequests = new AtomicLong();
+  private final AtomicLong mDecodedResponses = new AtomicLong();
+  private final AtomicLong mCompressedBodies = new AtomicLong();
+  private final AtomicLong mCompressedBodySavings = new AtomicLong();
+
+  public NativeHttpClient() {
+    mSocketFactory = new CountingSocketFactory(makeSocketFactory());
+  }
+
+  /** Opens a connection using the shared socket factory. */
+  public @NonNull HttpURLConnection open(@NonNull String uri) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+    mRequests.incrementAndGet();
+    if (connection instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) connection).setSSLSocketFactory(mSocketFactory);
+      mHttpsRequests.incrementAndGet();
+    }
+    return connection;
+  }
+
+  /**
+   * Hands a connection back to the pool after its body has been read. Closing the stream, rather
+   * than calling `disconnect`, is what keeps the socket alive for the next request.
+   */
+  public void release(@NonNull HttpURLConnection connection, @Nullable InputStream body) {
+    try {
+      if (body != null) body.close();
+    } catch (IOException error) {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Wraps a response body in a decoder for its `Content-Encoding`, so it decompresses as it gets
+   * read. Returns the original stream if the encoding is unknown.
+   */
+  public @NonNull InputStream decode(@NonNull InputStream in, @NonNull String encoding)
+      throws IOException {
+    encoding = encoding.trim().toLowerCase(Locale.ROOT);
+    if (!"gzip".equals(encoding) && !"x-gzip".equals(encoding) && !"deflate".equals(encoding)) {
+      return in;
+    }
+
+    // Empty bodies have no compression header, even if they claim an encoding:
+    PushbackInputStream peek = new PushbackInputStream(in, 2);
+    byte[] header = new byte[2];
+    int size = 0;
+    while (size < 2) {
+      int read = peek.read(header, size, 2 - size);
+      if (read < 0) break;
+      size += read;
+    }
+    peek.unread(header, 0, size);
+    if (size == 0) return peek;
+
+    mDecodedResponses.incrementAndGet();
+    if (!"deflate".equals(encoding)) return new GZIPInputStream(peek, 8 * 1024);
+
+    // "deflate" should mean zlib-wrapped data, but some servers send raw deflate:
+    int cmf = header[0] & 0xff;
+    boolean zlib = size == 2 && (cmf & 0x0f) == 8 && ((cmf << 8) | (header[1] & 0xff)) % 31 == 0;
+    return new InflaterInputStream(peek, new Inflater(!zlib), 8 * 1024);
+  }
+
+  /** Compresses a request body. */
+  public @NonNull byte[] gzip(@NonNull byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(data);
+    gzip.close();
+    byte[] compressed = out.toByteArray();
+    mCompressedBodies.incrementAndGet();
+    mCompressedBodySavings.addAndGet(data.length - compressed.length);
+    return compressed;
+  }
+
+  /** Reports how often requests were able to reuse an existing connection. */
+  public @NonNull JSONObject getStats() throws JSONException {
+    long httpsRequests = mHttpsRequests.get();
+    long connections = mSocketFactory.mConnections.get();
+    JSONObject out = new JSONObject();
+    out.put("requests", mRequests.get());
+    out.put("httpsRequests", httpsRequests);
+    out.put("tlsConnections", connections);
+    out.put("reusedConnections", Math.max(0, httpsRequests - connections));
+    out.put("fullHandshakes", mSocketFactory.mFullHandshakes.get());
+    out.put("resumedHandshakes", mSocketFactory.mResumedHandshakes.get());
+    out.put("decodedResponses", mDecodedResponses.get());
+    out.put("compressedBodies", mCompressedBodies.get());
+    out.put("compressedBodySavings", mCompressedBodySavings.get());
+    return out;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private static @NonNull SSLSocketFactory makeSocketFactory() {
+    try {
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, null, null);
+      SSLSessionContext sessions = context.getClientSessionContext();
+      if (sessions != null) {
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+      }
+      return context.getSocketFactory();
+    } catch (GeneralSecurityException error) {
+      return HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+  }
+
+  /** Counts new TLS connections and whether their handshakes resumed a cached session. */
+  private static class CountingSocketFactory extends SSLSocketFactory {
+    private final SSLSocketFactory mInner;
+    final AtomicLong mConnections = new AtomicLong();
+    final AtomicLong mFullHandshakes = new AtomicLong();
+    final AtomicLong mResumedHandshakes = new AtomicLong();
+
+    CountingSocketFactory(@NonNull SSLSocketFactory inner) {
+      mInner = inner;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+      return mInner.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+      return mInner.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+        throws IOException {
+      return track(mInner.createSocket(socket, host, port, autoClose), host);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      return track(mInner.createSocket(host, port), host);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+        throws IOException {
+      return track(mInner.createSocket(host, port, localHost, localPort), host);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      return track(mInner.createSocket(host, port), host.getHostName());
+    }
+
+    @Override
+    public Socket createSocket(
+        InetAddress address, int port, InetAddress localAddress, int localPort)
+        throws IOException {
+      return track(
+          mInner.createSocket(address, port, localAddress, localPort), address.getHostName());
+    }
+
+    private Socket track(Socket socket, final String host) {
+      mConnections.incrementAndGet();
+      if (socket instanceof SSLSocket) {
+        final long createdAt = System.currentTimeMillis();
+        // The handshake starts right after the socket is created:
+        final long startedAt = System.nanoTime();
+        ((SSLSocket) socket)
+            .addHandshakeCompletedListener(
+                new HandshakeCompletedListener() {
+                  @Override
+                  public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    // A resumed session keeps its original creation time:
+                    boolean resumed = event.getSession().getCreationTime() < createdAt;
+                    if (resumed) {
+                      mResumedHandshakes.incrementAndGet();
+                    } else {
+                      mFullHandshakes.incrementAndGet();
+                    }
+                    if (host != null) {
+                      CallStats.recordHandshake(
+                          host, (System.nanoTime() - startedAt) / 1e6, resumed);
+                    }
+                  }
+                });
+      }
+      return socket;
+    }
+  }
+}
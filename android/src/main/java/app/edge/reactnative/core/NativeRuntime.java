@@ -0,0 +1,101 @@
+package app.edge.reactnative.core;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The native state every EdgeCoreWebView shares: the worker lanes, the HTTP client with its cache
+ * and fetch queues, and the Disklet with its read cache.
+ *
+ * <p>Each view holds a reference while it lives. Once the last one lets go, the runtime shuts its
+ * lanes down, so remounts and React Native reloads don't pile up threads, and the next view starts
+ * a fresh runtime. `EdgeCoreModule.warmUp` can also build the runtime before any view exists.
+ */
+class NativeRuntime {
+  // Guarded by the class lock:
+  private static @Nullable NativeRuntime sShared;
+  private static int sUsers;
+  private static long sStarted;
+
+  final Disklet disklet;
+  final NativeHttpClient http = new NativeHttpClient();
+  final HttpCache httpCache;
+  final SharedFetches sharedGets = new SharedFetches();
+  final NativeScheduler scheduler = new NativeScheduler();
+  final FetchScheduler fetchScheduler = new FetchScheduler(scheduler);
+  final Map<Integer, FetchStream> streams = new ConcurrentHashMap<>();
+  final AtomicInteger lastStreamId = new AtomicInteger();
+
+  private NativeRuntime(@NonNull Context context) {
+    disklet = new Disklet(context.getFilesDir());
+    // Keep this out of the files folder, where the Disklet would see it:
+    httpCache = new HttpCache(context.getDir("edge-core-http-cache", Context.MODE_PRIVATE));
+  }
+
+  /** Builds the shared runtime ahead of time, without holding on to it. */
+  static synchronized void prepare(@NonNull Context context) {
+    if (sShared != null) return;
+    sShared = new NativeRuntime(context);
+    ++sStarted;
+  }
+
+  /** Returns the shared runtime, building it if needed. Each call needs a matching `release`. */
+  static synchronized @NonNull NativeRuntime acquire(@NonNull Context context) {
+    prepare(context);
+    ++sUsers;
+    return sShared;
+  }
+
+  /** Lets go of the runtime, shutting it down if nobody else is using it. */
+  static synchronized void release(@NonNull NativeRuntime runtime) {
+    if (runtime != sShared || --sUsers > 0) return;
+    sShared = null;
+    runtime.shutdown();
+  }
+
+  /**
+   * Gathers every native metric, for the `nativeStats` bridge method and
+   * `EdgeCoreModule.getNativeStats`. The runtime's own sections are missing while no runtime
+   * exists.
+   */
+  static @NonNull JSONObject getAllStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    NativeRuntime runtime;
+    synchronized (NativeRuntime.class) {
+      JSONObject self = new JSONObject();
+      self.put("views", sUsers);
+      self.put("started", sStarted);
+      stats.put("runtime", self);
+      runtime = sShared;
+    }
+    if (runtime != null) {
+      stats.put("disklet", runtime.disklet.getCacheStats());
+      JSONObject http = runtime.http.getStats();
+      http.put("sharedGets", runtime.sharedGets.getShared());
+      stats.put("http", http);
+      stats.put("httpCache", runtime.httpCache.getStats());
+      stats.put("fetchQueue", runtime.fetchScheduler.getStats());
+      stats.put("lanes", runtime.scheduler.getStats());
+    }
+    stats.put("calls", CallStats.getStats());
+    stats.put("fetchMemory", FetchMemory.getStats());
+    stats.put("assets", AssetServer.getStats());
+    stats.put("resolves", ScriptBatcher.getStats());
+    stats.put("messages", MessageBatcher.getStats());
+    return stats;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private void shutdown() {
+    for (FetchStream stream : streams.values()) stream.cancel();
+    streams.clear();
+    scheduler.shutdown();
+  }
+}
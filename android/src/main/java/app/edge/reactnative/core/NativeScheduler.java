@@ -0,0 +1,223 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Runs native work on separate bounded lanes, so CPU-heavy scrypt, blocking disk access, and slow
+ * network requests cannot starve each other.
+ *
+ * <p>scrypt gets a lane of its own with a single slot, since each call already spreads its work
+ * across every core. Running several at once would multiply both the threads and the memory.
+ *
+ * <p>Each lane has a fixed number of threads and a maximum queue depth. Once a lane's queue is
+ * full, further work waits in a pending list and joins the queue as the lane drains, so a burst of
+ * calls waits its turn rather than failing. High-priority work, such as login, always goes straight
+ * into the queue. Within a lane, tasks run in priority order, and in submission order within the
+ * same priority.
+ */
+class NativeScheduler {
+  enum Lane {
+    CPU,
+    IO,
+    NETWORK,
+    SCRYPT
+  }
+
+  enum Priority {
+    HIGH,
+    NORMAL,
+    LOW
+  }
+
+  private final LaneExecutor mCpu;
+  private final LaneExecutor mIo;
+  private final LaneExecutor mNetwork;
+  private final LaneExecutor mScrypt;
+  private final AtomicLong mSequence = new AtomicLong();
+
+  public NativeScheduler() {
+    int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+    mCpu = new LaneExecutor("cpu", cores, 64);
+    mIo = new LaneExecutor("io", 4, 1024);
+    mNetwork = new LaneExecutor("network", 16, 512);
+    mScrypt = new LaneExecutor("scrypt", 1, 16);
+  }
+
+  /**
+   * Queues a task on a lane, or holds it until the lane has room.
+   *
+   * @return false if the scheduler has shut down, in which case the task will not run.
+   */
+  public boolean execute(@NonNull Lane lane, @NonNull Priority priority, @NonNull Runnable task) {
+    return getLane(lane).offer(new LaneTask(priority, mSequence.getAndIncrement(), task));
+  }
+
+  /** Returns the number of threads a lane can run at once. */
+  public int getLaneSize(@NonNull Lane lane) {
+    return getLane(lane).getMaximumPoolSize();
+  }
+
+  /** Reports each lane's threads, queue depth, and pending work. */
+  public @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    for (Lane lane : Lane.values()) {
+      out.put(lane.name().toLowerCase(), getLane(lane).getStats());
+    }
+    return out;
+  }
+
+  /** Stops accepting work and lets the lane threads exit once their queues drain. */
+  public void shutdown() {
+    mCpu.shutdown();
+    mIo.shutdown();
+    mNetwork.shutdown();
+    mScrypt.shutdown();
+  }
+
+  private @NonNull LaneExecutor getLane(@NonNull Lane lane) {
+    switch (lane) {
+      case CPU:
+        return mCpu;
+      case NETWORK:
+        return mNetwork;
+      case SCRYPT:
+        return mScrypt;
+      default:
+        return mIo;
+    }
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private static class LaneExecutor extends ThreadPoolExecutor {
+    private final int mMaxQueued;
+
+    // Work waiting for room in the queue, in the same order the queue uses:
+    private final PriorityQueue<LaneTask> mPending = new PriorityQueue<>();
+    private long mHeld;
+    private int mMaxPending;
+
+    LaneExecutor(@NonNull String name, int threads, int maxQueued) {
+      super(
+          threads,
+          threads,
+          30,
+          TimeUnit.SECONDS,
+          new PriorityBlockingQueue<Runnable>(),
+          new LaneThreadFactory(name));
+      allowCoreThreadTimeOut(true);
+      mMaxQueued = maxQueued;
+    }
+
+    boolean offer(@NonNull LaneTask task) {
+      if (isShutdown()) return false;
+      synchronized (this) {
+        // Don't let new work jump ahead of work that is already waiting:
+        if (task.mPriority != Priority.HIGH
+            && (!mPending.isEmpty() || getQueue().size() >= mMaxQueued)) {
+          mPending.add(task);
+          ++mHeld;
+          if (mPending.size() > mMaxPending) mMaxPending = mPending.size();
+          return true;
+        }
+      }
+      try {
+        execute(task);
+        return true;
+      } catch (RejectedExecutionException error) {
+        return false;
+      }
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable error) {
+      super.afterExecute(task, error);
+      admit(mMaxQueued);
+    }
+
+    @Override
+    public void shutdown() {
+      // Pending work still gets to run, just like queued work:
+      admit(Integer.MAX_VALUE);
+      super.shutdown();
+    }
+
+    synchronized @NonNull JSONObject getStats() throws JSONException {
+      JSONObject out = new JSONObject();
+      out.put("threads", getMaximumPoolSize());
+      out.put("active", getActiveCount());
+      out.put("queued", getQueue().size());
+      out.put("maxQueued", mMaxQueued);
+      out.put("pending", mPending.size());
+      out.put("maxPending", mMaxPending);
+      out.put("held", mHeld);
+      return out;
+    }
+
+    /** Moves pending work into the queue while it has room. */
+    private void admit(int maxQueued) {
+      while (true) {
+        LaneTask task;
+        synchronized (this) {
+          if (mPending.isEmpty() || getQueue().size() >= maxQueued) return;
+          task = mPending.poll();
+        }
+        try {
+          execute(task);
+        } catch (RejectedExecutionException error) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static class LaneTask implements Runnable, Comparable<LaneTask> {
+    private final Priority mPriority;
+    private final long mSequence;
+    private final Runnable mTask;
+
+    LaneTask(@NonNull Priority priority, long sequence, @NonNull Runnable task) {
+      mPriority = priority;
+      mSequence = sequence;
+      mTask = task;
+    }
+
+    @Override
+    public void run() {
+      mTask.run();
+    }
+
+    @Override
+    public int compareTo(@NonNull LaneTask other) {
+      int out = mPriority.compareTo(other.mPriority);
+      if (out != 0) return out;
+      return Long.compare(mSequence, other.mSequence);
+    }
+  }
+
+  private static class LaneThreadFactory implements ThreadFactory {
+    private final String mName;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    LaneThreadFactory(@NonNull String name) {
+      mName = name;
+    }
+
+    @Override
+    public Thread newThread(@NonNull Runnable runnable) {
+      Thread thread = new Thread(runnable, "edge-core-" + mName + "-" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
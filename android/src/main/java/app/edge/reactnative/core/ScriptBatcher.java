@@ -0,0 +1,117 @@
+package app.edge.reactnative.core;
+
+import android.webkit.WebView;
+import androidx.annotation.NonNull;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Gathers small scripts bound for a WebView, such as promise completions, and evaluates them
+ * together. A burst of completions then costs one trip through the UI thread instead of hundreds.
+ *
+ * <p>A batch runs on the UI thread's next turn, or after the configured delay, or as soon as it
+ * reaches the configured size, whichever comes first. This deliberately avoids frame callbacks,
+ * which stop while the screen is off, since background sync needs its completions too.
+ */
+class ScriptBatcher {
+  // Batch-size histogram bucket limits, shared by every WebView:
+  private static final int[] BUCKET_LIMITS = {1, 4, 16, 64, Integer.MAX_VALUE};
+  private static final long[] sBuckets = new long[BUCKET_LIMITS.length];
+  private static long sFlushes;
+  private static long sScripts;
+  private static int sLargestBatch;
+
+  private final WebView mWebView;
+  private StringBuilder mScript = new StringBuilder();
+  private int mCount;
+  private boolean mScheduled;
+  private boolean mClosed;
+
+  public ScriptBatcher(@NonNull WebView webView) {
+    mWebView = webView;
+  }
+
+  /** Queues a script. May be called from any thread. */
+  public void add(@NonNull String script) {
+    int maxSize = EdgeCoreConfig.sResolveBatchSize;
+    boolean flushNow;
+    boolean schedule;
+    synchronized (this) {
+      if (mClosed) return;
+      if (mCount > 0) mScript.append(";\n");
+      mScript.append(script);
+      ++mCount;
+      flushNow = mCount >= maxSize;
+      schedule = !mScheduled;
+      mScheduled = true;
+    }
+
+    if (flushNow) {
+      mWebView.post(mFlush);
+    } else if (schedule) {
+      int delayMs = EdgeCoreConfig.sResolveBatchDelayMs;
+      if (delayMs > 0) mWebView.postDelayed(mFlush, delayMs);
+      else mWebView.post(mFlush);
+    }
+  }
+
+  /** Reports how many scripts each flush carried. */
+  public static @NonNull JSONObject getStats() throws JSONException {
+    JSONObject out = new JSONObject();
+    synchronized (ScriptBatcher.class) {
+      out.put("flushes", sFlushes);
+      out.put("scripts", sScripts);
+      out.put("largestBatch", sLargestBatch);
+      JSONArray buckets = new JSONArray();
+      for (int i = 0; i < BUCKET_LIMITS.length; ++i) {
+        JSONObject bucket = new JSONObject();
+        bucket.put("upTo", BUCKET_LIMITS[i] == Integer.MAX_VALUE ? null : BUCKET_LIMITS[i]);
+        bucket.put("flushes", sBuckets[i]);
+        buckets.put(bucket);
+      }
+      out.put("batchSizes", buckets);
+    }
+    return out;
+  }
+
+  /** Drops any queued scripts and ignores later ones, once the WebView is gone. */
+  public synchronized void close() {
+    mClosed = true;
+    mScript = new StringBuilder();
+    mCount = 0;
+  }
+
+  // helpers -----------------------------------------------------------
+
+  private final Runnable mFlush =
+      new Runnable() {
+        @Override
+        public void run() {
+          String script;
+          int count;
+          synchronized (ScriptBatcher.this) {
+            mScheduled = false;
+            if (mCount == 0) return;
+            script = mScript.toString();
+            count = mCount;
+            mScript = new StringBuilder();
+            mCount = 0;
+          }
+          record(count);
+          mWebView.evaluateJavascript(script, null);
+        }
+      };
+
+  private static synchronized void record(int count) {
+    ++sFlushes;
+    sScripts += count;
+    if (count > sLargestBatch) sLargestBatch = count;
+    for (int i = 0; i < BUCKET_LIMITS.length; ++i) {
+      if (count <= BUCKET_LIMITS[i]) {
+        ++sBuckets[i];
+        break;
+      }
+    }
+  }
+}
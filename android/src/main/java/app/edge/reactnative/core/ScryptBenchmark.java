@@ -0,0 +1,190 @@
+package app.edge.reactnative.core;
+
+import android.os.Build;
+import android.util.AtomicFile;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Times scrypt natively, so the core can pick login parameters that match the hardware without
+ * bridge overhead skewing the numbers.
+ *
+ * <p>Each benchmark does a few untimed warm-up runs, then reports the median and 95th percentile of
+ * the timed runs. It can also measure how the time scales as N, r, and p grow. Results stay cached
+ * for the life of the process, and on disk until the app or the OS changes.
+ */
+class ScryptBenchmark {
+  /** Runs one scrypt derivation with the given parameters. */
+  interface Runner {
+    void run(int n, int r, int p);
+  }
+
+  private static final int DEFAULT_RUNS = 5;
+  private static final int DEFAULT_WARMUPS = 1;
+  private static final int CURVE_RUNS = 3;
+  private static final int MAX_RUNS = 50;
+
+  // Shared by every WebView in the process:
+  private static final Map<String, JSONObject> sResults = new HashMap<>();
+
+  private final Runner mRunner;
+  private final File mCacheFile;
+  private final String mVersion;
+
+  public ScryptBenchmark(
+      @NonNull Runner runner, @NonNull File cacheFile, @NonNull String appVersion) {
+    mRunner = runner;
+    mCacheFile = cacheFile;
+    mVersion = appVersion + "/" + Build.FINGERPRINT;
+  }
+
+  /**
+   * Benchmarks the parameters in `opts`, which may hold `n`, `r`, `p`, `runs`, `warmups`,
+   * `curves`, and `force`. Unless `force` is set, this returns an earlier result if one exists.
+   */
+  public synchronized @NonNull JSONObject run(@NonNull JSONObject opts) throws JSONException {
+    int n = opts.optInt("n", 16384);
+    int r = opts.optInt("r", 8);
+    int p = opts.optInt("p", 1);
+    int runs = Math.max(1, Math.min(MAX_RUNS, opts.optInt("runs", DEFAULT_RUNS)));
+    int warmups = Math.max(0, Math.min(MAX_RUNS, opts.optInt("warmups", DEFAULT_WARMUPS)));
+    boolean curves = opts.optBoolean("curves");
+    String key = n + ":" + r + ":" + p + ":" + runs + (curves ? ":curves" : "");
+
+    if (!opts.optBoolean("force")) {
+      JSONObject cached = getCached(key);
+      if (cached != null) return withCached(cached, true);
+    }
+
+    for (int i = 0; i < warmups; ++i) mRunner.run(n, r, p);
+    double[] times = time(n, r, p, runs);
+    JSONObject out = new JSONObject();
+    out.put("n", n);
+    out.put("r", r);
+    out.put("p", p);
+    out.put("runs", runs);
+    out.put("medianMs", percentile(times, 50));
+    out.put("p95Ms", percentile(times, 95));
+
+    if (curves) {
+      JSONObject curve = new JSONObject();
+      curve.put("n", measureCurve(new int[] {n, 2 * n, 4 * n}, 'n', n, r, p));
+      curve.put("r", measureCurve(new int[] {Math.max(1, r / 2), r, 2 * r}, 'r', n, r, p));
+      curve.put("p", measureCurve(new int[] {1, 2, 4, 8}, 'p', n, r, p));
+      out.put("curves", curve);
+    }
+
+    putCached(key, out);
+    return withCached(out, false);
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /**
+   * Times the base parameters with one of them swapped for each value in turn. Returns an array of
+   * `[value, medianMs]` pairs.
+   */
+  private @NonNull JSONArray measureCurve(@NonNull int[] values, char which, int n, int r, int p)
+      throws JSONException {
+    JSONArray out = new JSONArray();
+    for (int value : values) {
+      double[] times =
+          time(
+              which == 'n' ? value : n,
+              which == 'r' ? value : r,
+              which == 'p' ? value : p,
+              CURVE_RUNS);
+      JSONArray point = new JSONArray();
+      point.put(value);
+      point.put(percentile(times, 50));
+      out.put(point);
+    }
+    return out;
+  }
+
+  private @NonNull double[] time(int n, int r, int p, int runs) {
+    double[] out = new double[runs];
+    for (int i = 0; i < runs; ++i) {
+      long start = System.nanoTime();
+      mRunner.run(n, r, p);
+      out[i] = (System.nanoTime() - start) / 1e6;
+    }
+    return out;
+  }
+
+  /** Nearest-rank percentile. */
+  private static double percentile(@NonNull double[] times, int percent) {
+    double[] sorted = Arrays.copyOf(times, times.length);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  private static @NonNull JSONObject withCached(@NonNull JSONObject result, boolean cached)
+      throws JSONException {
+    JSONObject out = new JSONObject(result.toString());
+    out.put("cached", cached);
+    return out;
+  }
+
+  private @Nullable JSONObject getCached(@NonNull String key) {
+    synchronized (sResults) {
+      if (sResults.isEmpty()) loadCacheFile();
+      return sResults.get(key);
+    }
+  }
+
+  private void putCached(@NonNull String key, @NonNull JSONObject result) {
+    synchronized (sResults) {
+      sResults.put(key, result);
+      try {
+        JSONObject file = new JSONObject();
+        file.put("version", mVersion);
+        file.put("results", new JSONObject(sResults));
+        writeCacheFile(file.toString().getBytes(StandardCharsets.UTF_8));
+      } catch (IOException | JSONException e) {
+        // The cache is only an optimization.
+      }
+    }
+  }
+
+  /** Loads results from disk, unless they came from a different app or OS build. */
+  private void loadCacheFile() {
+    try {
+      byte[] data = new AtomicFile(mCacheFile).readFully();
+      JSONObject file = new JSONObject(new String(data, StandardCharsets.UTF_8));
+      if (!mVersion.equals(file.optString("version"))) return;
+      JSONObject results = file.getJSONObject("results");
+      JSONArray keys = results.names();
+      if (keys == null) return;
+      for (int i = 0; i < keys.length(); ++i) {
+        String key = keys.getString(i);
+        sResults.put(key, results.getJSONObject(key));
+      }
+    } catch (IOException | JSONException e) {
+      // Just benchmark again.
+    }
+  }
+
+  private void writeCacheFile(@NonNull byte[] data) throws IOException {
+    AtomicFile atomicFile = new AtomicFile(mCacheFile);
+    FileOutputStream stream = atomicFile.startWrite();
+    try {
+      stream.write(data);
+      atomicFile.finishWrite(stream);
+    } catch (IOException e) {
+      atomicFile.failWrite(stream);
+      throw e;
+    }
+  }
+}
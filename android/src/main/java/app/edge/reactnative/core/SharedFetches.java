@@ -0,0 +1,124 @@
+package app.edge.reactnative.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Lets identical GET requests that overlap in time share one trip to the server.
+ *
+ * <p>The first request with a given key becomes the leader and does the work. Identical requests
+ * that arrive before it finishes wait without holding a thread, then settle with the leader's
+ * outcome, unless they leave first.
+ */
+class SharedFetches {
+  /** Starts a request over again, for followers whose leader could not share its outcome. */
+  interface Restart {
+    void restart(@NonNull JSONArray args, @NonNull PendingCall promise);
+  }
+
+  private final Map<String, Leader> mLeaders = new HashMap<>();
+  private long mShared;
+
+  /**
+   * Joins an identical request that is already running, returning null. Otherwise, returns a
+   * promise that settles this request along with any that join it later. If this request ends up
+   * following a leader that cannot share, `restart` gets it going again.
+   */
+  public synchronized @Nullable Leader join(
+      @NonNull String key,
+      @NonNull JSONArray args,
+      @NonNull PendingCall promise,
+      @NonNull Restart restart) {
+    Leader leader = mLeaders.get(key);
+    if (leader != null) {
+      leader.mFollowers.add(new Follower(args, promise, restart));
+      ++mShared;
+      return null;
+    }
+    leader = new Leader(key, promise);
+    mLeaders.put(key, leader);
+    return leader;
+  }
+
+  /**
+   * Stops a follower from waiting on its leader, such as when it gets cancelled. Returns false if
+   * the follower has already been settled or restarted.
+   */
+  public synchronized boolean leave(@NonNull String key, @NonNull PendingCall promise) {
+    Leader leader = mLeaders.get(key);
+    if (leader == null) return false;
+    for (Iterator<Follower> it = leader.mFollowers.iterator(); it.hasNext(); ) {
+      if (it.next().promise == promise) {
+        it.remove();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the number of requests that piggybacked on another. */
+  public synchronized long getShared() {
+    return mShared;
+  }
+
+  private synchronized @NonNull List<Follower> detach(@NonNull Leader leader) {
+    if (mLeaders.get(leader.mKey) == leader) mLeaders.remove(leader.mKey);
+    List<Follower> out = leader.mFollowers;
+    leader.mFollowers = new ArrayList<>();
+    return out;
+  }
+
+  private static class Follower {
+    final JSONArray args;
+    final PendingCall promise;
+    final Restart restart;
+
+    Follower(@NonNull JSONArray args, @NonNull PendingCall promise, @NonNull Restart restart) {
+      this.args = args;
+      this.promise = promise;
+      this.restart = restart;
+    }
+  }
+
+  /** The promise for a leading request. */
+  class Leader implements PendingCall {
+    private final String mKey;
+    private final PendingCall mPromise;
+    private List<Follower> mFollowers = new ArrayList<>();
+
+    Leader(@NonNull String key, @NonNull PendingCall promise) {
+      mKey = key;
+      mPromise = promise;
+    }
+
+    /**
+     * Stops sharing this request, so the followers start their own. The leader calls this when its
+     * outcome only suits itself, such as a streamed body or a cancellation.
+     */
+    public void release() {
+      for (Follower follower : detach(this)) {
+        follower.restart.restart(follower.args, follower.promise);
+      }
+    }
+
+    @Override
+    public void resolve(Object value) {
+      List<Follower> followers = detach(this);
+      mPromise.resolve(value);
+      for (Follower follower : followers) follower.promise.resolve(value);
+    }
+
+    @Override
+    public void reject(String message) {
+      List<Follower> followers = detach(this);
+      mPromise.reject(message);
+      for (Follower follower : followers) follower.promise.reject(message);
+    }
+  }
+}
@@ -1,35 +1,69 @@
 package app.edge.reactnative.core;
 
-import android.util.Base64;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.CodingErrorAction;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-/** Consumes an input stream and converts it to text. */
+/**
+ * Consumes an input stream into memory.
+ *
+ * <p>The stream reads straight into the growing buffer, with no intermediate chunks. When the
+ * caller knows the size up front, the buffer starts out exactly that big, so a correct
+ * `Content-Length` means a single allocation and no copies.
+ *
+ * <p>Given a fetch's memory lease, the reader claims each buffer from the lease before allocating
+ * it, so it may have to wait for other fetches to finish first.
+ */
 class StreamStringReader extends ByteArrayOutputStream {
+  private static final int DEFAULT_SIZE = 4096;
+
+  private final @Nullable FetchMemory.Lease mLease;
+
+  /** Reads against a fetch's memory lease, which approves each allocation and caps the size. */
+  public StreamStringReader(@Nullable FetchMemory.Lease lease) {
+    super(0);
+    mLease = lease;
+  }
+
   public void read(@NonNull InputStream in, int sizeHint) throws IOException {
-    int size;
-    byte[] data = new byte[sizeHint > 0 ? sizeHint : 4096];
-    while ((size = in.read(data)) > 0) {
-      write(data, 0, size);
+    if (buf.length - count < (sizeHint > 0 ? sizeHint : DEFAULT_SIZE)) {
+      grow((long) count + (sizeHint > 0 ? sizeHint : DEFAULT_SIZE));
+    }
+
+    while (true) {
+      if (count == buf.length) {
+        // Only grow if there really is more data:
+        int next = in.read();
+        if (next < 0) break;
+        grow(Math.max(DEFAULT_SIZE, buf.length * 2L));
+        buf[count++] = (byte) next;
+        continue;
+      }
+      int size = in.read(buf, count, buf.length - count);
+      if (size < 0) break;
+      count += size;
     }
   }
 
-  public @NonNull String getUtf8() throws CharacterCodingException {
-    return StandardCharsets.UTF_8
-        .newDecoder()
-        .onMalformedInput(CodingErrorAction.REPORT)
-        .onUnmappableCharacter(CodingErrorAction.REPORT)
-        .decode(ByteBuffer.wrap(buf, 0, count))
-        .toString();
+  /** Exposes the buffer, which is only valid up to `size()`. */
+  public @NonNull byte[] getBuffer() {
+    return buf;
   }
 
-  public @NonNull String getBase64() {
-    return Base64.encodeToString(buf, 0, count, Base64.NO_WRAP);
+  // helpers -----------------------------------------------------------
+
+  private void grow(long size) throws IOException {
+    if (mLease != null) {
+      int limit = mLease.getMaxBodyBytes();
+      if (size > limit) {
+        if (count >= limit) throw mLease.tooLarge();
+        size = limit;
+      }
+      mLease.reserve(size);
+    }
+    buf = Arrays.copyOf(buf, (int) Math.min(size, Integer.MAX_VALUE - 8));
   }
 }
@@ -0,0 +1,115 @@
+package app.edge.reactnative.core;
+
+import android.content.Context;
+import android.webkit.WebSettings;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Does the slow parts of starting edge-core-js before the first EdgeCoreWebView exists.
+ *
+ * <p>One background thread loads the JNI library, builds the native runtime with its worker lanes,
+ * and reads the core bundles into the asset cache. Another loads the WebView provider, which is
+ * the biggest single cost of creating the first WebView. The promise resolves with the time each
+ * phase took once both finish.
+ */
+class WarmUp {
+  private final Context mContext;
+  private final List<String> mAssets;
+  private final Promise mPromise;
+  private final long mStart = System.nanoTime();
+
+  // Guarded by `this`:
+  private final Map<String, Double> mTimings = new LinkedHashMap<>();
+  private long mAssetBytes;
+  private int mRunning = 2;
+  private @Nullable String mError;
+
+  public WarmUp(@NonNull Context context, @NonNull List<String> assets, @NonNull Promise promise) {
+    mContext = context;
+    mAssets = assets;
+    mPromise = promise;
+  }
+
+  public void start() {
+    new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  long start = System.nanoTime();
+                  EdgeNative.loadLibrary();
+                  start = record("libraryMs", start);
+
+                  NativeRuntime.prepare(mContext);
+                  start = record("runtimeMs", start);
+
+                  AssetServer assets = new AssetServer(mContext);
+                  long bytes = 0;
+                  for (String path : mAssets) bytes += Math.max(0, assets.prefetch(path));
+                  record("assetsMs", start);
+                  synchronized (WarmUp.this) {
+                    mAssetBytes = bytes;
+                  }
+                  finish(null);
+                } catch (Throwable error) {
+                  finish(error);
+                }
+              }
+            },
+            "edge-core-warm-up")
+        .start();
+
+    new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  long start = System.nanoTime();
+                  WebSettings.getDefaultUserAgent(mContext);
+                  record("webViewMs", start);
+                  finish(null);
+                } catch (Throwable error) {
+                  finish(error);
+                }
+              }
+            },
+            "edge-core-warm-up-webview")
+        .start();
+  }
+
+  // helpers -----------------------------------------------------------
+
+  /** Saves the time since `start`, and returns the current time for the next phase. */
+  private synchronized long record(@NonNull String phase, long start) {
+    long now = System.nanoTime();
+    mTimings.put(phase, (now - start) / 1e6);
+    return now;
+  }
+
+  private void finish(@Nullable Throwable error) {
+    WritableMap out;
+    synchronized (this) {
+      if (error != null && mError == null) mError = String.valueOf(error.getMessage());
+      if (--mRunning > 0) return;
+      if (mError != null) {
+        mPromise.reject("WarmUpError", mError);
+        return;
+      }
+
+      out = Arguments.createMap();
+      for (Map.Entry<String, Double> item : mTimings.entrySet()) {
+        out.putDouble(item.getKey(), item.getValue());
+      }
+      out.putDouble("assetBytes", mAssetBytes);
+      out.putDouble("totalMs", (System.nanoTime() - mStart) / 1e6);
+    }
+    mPromise.resolve(out);
+  }
+}
@@ -2,6 +2,7 @@ import { combinePixies, PixieInput, stopUpdates, TamePixie } from 'redux-pixies'
 import { base16 } from 'rfc4648'
 
 import { EdgeSnrp } from '../../types/server-types'
+import { EdgeIo, EdgeLog } from '../../types/types'
 import { utf8 } from '../../util/encoding'
 import { RootProps } from '../root-pixie'
 
@@ -14,6 +15,15 @@ export interface ScryptOutput {
   ) => Promise<{ hash: Uint8Array; time: number }>
 }
 
+/**
+ * The React Native io can also benchmark scrypt natively,
+ * which avoids timing the bridge along with the hash.
+ * The benchmark uses n=16384, r=8, p=1, matching `calcSnrpForTarget`.
+ */
+export interface NativeScryptIo extends EdgeIo {
+  scryptBenchmark?: () => Promise<{ medianMs: number; cached: boolean }>
+}
+
 /**
  * Prevents a function from running in parallel.
  * The currently-running operation must finish before the new one starts.
@@ -30,6 +40,29 @@ function serialize<A extends any[], R>(
   }
 }
 
+/**
+ * Times scrypt using the native benchmark if the io has one,
+ * falling back on the JavaScript benchmark if it doesn't, or if it fails.
+ * Returns the time in milliseconds.
+ */
+export async function benchmarkScrypt(
+  io: NativeScryptIo,
+  log: EdgeLog,
+  runJsBenchmark: () => Promise<number>
+): Promise<number> {
+  const { scryptBenchmark } = io
+  if (scryptBenchmark == null) return await runJsBenchmark()
+
+  try {
+    const { medianMs, cached } = await scryptBenchmark()
+    log(`native scrypt benchmark: ${medianMs}ms${cached ? ' (cached)' : ''}`)
+    return medianMs
+  } catch (error: unknown) {
+    log.warn(`native scrypt benchmark failed: ${String(error)}`)
+    return await runJsBenchmark()
+  }
+}
+
 export function calcSnrpForTarget(
   salt: Uint8Array,
   benchMs: number,
@@ -108,19 +141,25 @@ export const scrypt: TamePixie<RootProps> = combinePixies({
     const { io, log } = input.props
     let benchmark: Promise<number>
 
+    async function runBenchmark(): Promise<number> {
+      const result = await input.props.output.scrypt.timeScrypt(
+        utf8.parse('1reallyJunkiePasswordToCheck'),
+        {
+          salt_hex: base16.parse(
+            'b5865ffb9fa7b3bfe4b2384d47ce831ee22a4a9d5c34c7ef7d21467cc758f81b'
+          ),
+          n: 16384,
+          r: 8,
+          p: 1
+        }
+      )
+      return result.time
+    }
+
     async function makeSnrp(targetMs: number): Promise<EdgeSnrp> {
       // Run the benchmark if needed:
       if (benchmark == null) {
-        benchmark = input.props.output.scrypt
-          .timeScrypt(utf8.parse('1reallyJunkiePasswordToCheck'), {
-            salt_hex: base16.parse(
-              'b5865ffb9fa7b3bfe4b2384d47ce831ee22a4a9d5c34c7ef7d21467cc758f81b'
-            ),
-            n: 16384,
-            r: 8,
-            p: 1
-          })
-          .then(result => result.time)
+        benchmark = benchmarkScrypt(io, log, runBenchmark)
       }
 
       // Calculate an SNRP value:
@@ -6,23 +6,53 @@ import { EdgeIo } from '../../types/types'
 import { decrypt, decryptText, encrypt } from '../../util/crypto/crypto'
 import { utf8 } from '../../util/encoding'
 
+/**
+ * The React Native io disklet can also read & decrypt files natively,
+ * which keeps the crypto off the JavaScript thread.
+ * These methods decrypt the first of the paths that exists.
+ */
+export interface NativeDecryptDisklet extends Disklet {
+  getDecryptedData?: (paths: string[], key: Uint8Array) => Promise<Uint8Array>
+  getDecryptedText?: (paths: string[], key: Uint8Array) => Promise<string>
+}
+
+/**
+ * Wraps a disklet with encryption.
+ *
+ * If the caller knows where the disklet's files live inside `io.disklet`,
+ * it can pass those folders as `nativeFolders`, in lookup order,
+ * and reads will decrypt natively where possible.
+ */
 export function encryptDisklet(
   io: EdgeIo,
   dataKey: Uint8Array,
-  disklet: Disklet
+  disklet: Disklet,
+  nativeFolders?: string[]
 ): Disklet {
+  const nativeDisklet: NativeDecryptDisklet = io.disklet
+  const nativePaths = (path: string): string[] | undefined =>
+    nativeFolders?.map(folder => `${folder}/${path}`)
+
   const out = {
     delete(path: string): Promise<unknown> {
       return disklet.delete(path)
     },
 
     async getData(path: string): Promise<Uint8Array> {
+      const paths = nativePaths(path)
+      if (paths != null && nativeDisklet.getDecryptedData != null) {
+        return await nativeDisklet.getDecryptedData(paths, dataKey)
+      }
       const text = await disklet.getText(path)
       const box = asEdgeBox(JSON.parse(text))
       return decrypt(box, dataKey)
     },
 
     async getText(path: string): Promise<string> {
+      const paths = nativePaths(path)
+      if (paths != null && nativeDisklet.getDecryptedText != null) {
+        return await nativeDisklet.getDecryptedText(paths, dataKey)
+      }
       const text = await disklet.getText(path)
       const box = asEdgeBox(JSON.parse(text))
       return decryptText(box, dataKey)
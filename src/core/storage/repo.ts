@@ -18,6 +18,17 @@ interface RepoChanges {
   [path: string]: EdgeBox | null
 }
 
+/**
+ * The React Native io disklet can also write and delete many files
+ * as one crash-safe transaction, which costs a single disk sync.
+ * A change with null text deletes its path.
+ */
+export interface NativeBatchDisklet extends Disklet {
+  writeBatch?: (
+    changes: Array<{ path: string; text: string | null }>
+  ) => Promise<void>
+}
+
 export interface SyncResult {
   changes: RepoChanges
   status: StorageWalletStatus
@@ -39,16 +50,15 @@ export function makeRepoPaths(
   storageKeys: EdgeStorageKeys
 ): StorageWalletPaths {
   const { dataKey, syncKey } = storageKeys
-  const baseDisklet = navigateDisklet(
-    io.disklet,
-    'repos/' + base58.stringify(sha256(sha256(syncKey)))
-  )
-  const changesDisklet = navigateDisklet(baseDisklet, 'changes')
-  const dataDisklet = navigateDisklet(baseDisklet, 'data')
+  const basePath = 'repos/' + base58.stringify(sha256(sha256(syncKey)))
+  const baseDisklet = navigateDisklet(io.disklet, basePath)
+  const changesDisklet = navigateBatchDisklet(io, `${basePath}/changes`)
+  const dataDisklet = navigateBatchDisklet(io, `${basePath}/data`)
   const disklet = encryptDisklet(
     io,
     dataKey,
-    mergeDisklets(changesDisklet, dataDisklet)
+    mergeDisklets(changesDisklet, dataDisklet),
+    [`${basePath}/changes`, `${basePath}/data`]
   )
 
   return {
@@ -78,9 +88,22 @@ export function loadRepoStatus(
  * but those can't happen under the current rules anyhow.
  */
 export async function saveChanges(
-  disklet: Disklet,
+  disklet: NativeBatchDisklet,
   changes: RepoChanges
 ): Promise<void> {
+  const { writeBatch } = disklet
+  if (writeBatch != null) {
+    return await writeBatch(
+      Object.keys(changes).map(path => {
+        const box = changes[path]
+        return {
+          path,
+          text: box != null ? JSON.stringify(wasEdgeBox(box)) : null
+        }
+      })
+    )
+  }
+
   await Promise.all(
     Object.keys(changes).map(path => {
       const box = changes[path]
@@ -143,9 +166,9 @@ export async function syncRepo(
   await saveChanges(dataDisklet, changes)
 
   // Delete any changed keys (since the upload is done):
-  await Promise.all(
-    ourChanges.map(change => changesDisklet.delete(change.path))
-  )
+  const uploaded: RepoChanges = {}
+  for (const change of ourChanges) uploaded[change.path] = null
+  await saveChanges(changesDisklet, uploaded)
 
   // Update the repo status:
   status.lastSync = Date.now() / 1000
@@ -154,6 +177,30 @@ export async function syncRepo(
   return { status, changes }
 }
 
+/**
+ * Navigates into a folder of `io.disklet`,
+ * keeping its native write batches if it has them.
+ */
+function navigateBatchDisklet(
+  io: EdgeIo,
+  folder: string
+): NativeBatchDisklet {
+  const nativeDisklet: NativeBatchDisklet = io.disklet
+  const out: NativeBatchDisklet = navigateDisklet(io.disklet, folder)
+
+  const { writeBatch } = nativeDisklet
+  if (writeBatch != null) {
+    out.writeBatch = async changes =>
+      await writeBatch(
+        changes.map(change => ({
+          ...change,
+          path: `${folder}/${change.path}`
+        }))
+      )
+  }
+  return out
+}
+
 /**
  * Lists all files in a disklet, recursively up to a limit.
  * Returns a list of full paths.
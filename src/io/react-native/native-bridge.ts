@@ -1,34 +1,190 @@
+import { base64 } from 'rfc4648'
+
+/**
+ * Binary data can travel as raw bytes over the Android binary port,
+ * but becomes base64 text everywhere else.
+ */
+type NativeBytes = string | Uint8Array
+
 interface NativeMethods {
+  batch: (calls: Array<[string, unknown[]]>) => Promise<BatchOutcome[]>
+
   diskletDelete: (path: string) => Promise<void>
-  diskletGetData: (path: string) => Promise<string> // base64
+  diskletGetData: (path: string) => Promise<NativeBytes>
   diskletGetText: (path: string) => Promise<string>
   diskletList: (path: string) => Promise<{ [path: string]: 'file' | 'folder' }>
-  diskletSetData: (path: string, data64: string) => Promise<void>
+  diskletSetData: (path: string, data: NativeBytes) => Promise<void>
   diskletSetText: (path: string, text: string) => Promise<void>
 
+  // Android only:
+  diskletGetDecrypted: (
+    paths: string[],
+    key: NativeBytes,
+    asText: boolean // Resolves with text instead of bytes
+  ) => Promise<NativeBytes>
+  diskletListRecursive: (
+    path: string,
+    filter?: NativeTreeFilter
+  ) => Promise<NativeTree<'file' | 'folder'>>
+  diskletReadTree: (
+    path: string,
+    filter?: NativeTreeFilter
+  ) => Promise<NativeTree<string>>
+  diskletWriteBatch: (changes: NativeWriteBatchEntry[]) => Promise<void>
+
   fetch: (
     url: string,
     method: string,
     headers: { [name: string]: string },
-    body?: string,
-    bodyIsBase64?: boolean
-  ) => Promise<{
-    status: number
-    headers: { [name: string]: string }
-    body: string
-    bodyIsBase64: boolean
-  }>
+    body?: NativeBytes,
+    bodyIsBase64?: boolean,
+    opts?: NativeFetchOptions
+  ) => Promise<NativeFetchResponse>
+
+  // Android only:
+  fetchCancel: (requestId: number) => Promise<void>
+  fetchStreamCancel: (streamId: number) => Promise<void>
+  fetchStreamRead: (streamId: number) => Promise<NativeBytes | null>
+
+  // Android only:
+  nativeStats: () => Promise<{ [section: string]: unknown }>
 
-  randomBytes: (size: number) => Promise<string> // base64
+  randomBytes: (size: number) => Promise<NativeBytes>
 
   scrypt: (
-    data64: string,
-    salt64: string,
+    data: NativeBytes,
+    salt: NativeBytes,
     n: number,
     r: number,
     p: number,
     dklen: number
-  ) => Promise<string> // base64
+  ) => Promise<NativeBytes>
+
+  // Android only:
+  scryptBenchmark: (
+    opts?: NativeScryptBenchmarkOptions
+  ) => Promise<NativeScryptBenchmark>
+}
+
+/**
+ * Limits for the recursive Disklet methods.
+ * The glob matches full paths, with `*` and `?` staying within one folder
+ * and `**` crossing folders.
+ */
+interface NativeTreeFilter {
+  prefix?: string
+  glob?: string
+  maxEntries?: number
+  maxBytes?: number
+}
+
+interface NativeTree<T> {
+  entries: { [path: string]: T }
+
+  // True if a limit cut the walk short:
+  truncated: boolean
+}
+
+/**
+ * One change in a Disklet write batch.
+ * An entry with neither `text` nor `data` deletes the path.
+ */
+interface NativeWriteBatchEntry {
+  path: string
+  text?: string
+  data?: string // base64
+}
+
+/**
+ * Extra options for the native fetch method.
+ */
+interface NativeFetchOptions {
+  // Android only. Lets GET requests use the on-disk HTTP cache:
+  cache?: boolean
+
+  // Android only. Gzips larger request bodies, for servers that accept it:
+  compressBody?: boolean
+
+  // Android only. Decides who goes first when hosts are at their limits:
+  priority?: 'high' | 'normal' | 'low'
+
+  // Android only. Lets large bodies come back as a stream:
+  stream?: boolean
+
+  // Android only. Lets `fetchCancel` find this request:
+  requestId?: number
+
+  // Android only. These default to the `EdgeCoreModule.configure` values:
+  connectTimeoutMs?: number
+  maxBodyBytes?: number
+  readTimeoutMs?: number
+  timeoutMs?: number
+}
+
+/**
+ * Options for the native scrypt benchmark.
+ * The defaults time n=16384, r=8, p=1 five times after one warm-up run.
+ */
+interface NativeScryptBenchmarkOptions {
+  n?: number
+  r?: number
+  p?: number
+  runs?: number
+  warmups?: number
+
+  // Also time how N, r, and p scale:
+  curves?: boolean
+
+  // Ignore any cached result:
+  force?: boolean
+}
+
+interface NativeScryptBenchmark {
+  n: number
+  r: number
+  p: number
+  runs: number
+  medianMs: number
+  p95Ms: number
+
+  // True if this came from an earlier run, perhaps from before a restart:
+  cached: boolean
+
+  // Arrays of [value, medianMs] pairs:
+  curves?: {
+    n: Array<[number, number]>
+    r: Array<[number, number]>
+    p: Array<[number, number]>
+  }
+}
+
+interface NativeFetchResponse {
+  status: number
+  headers: { [name: string]: string }
+  body?: string
+  bodyIsBase64?: boolean
+
+  // Read the body using `fetchStreamRead` if this is present:
+  streamId?: number
+
+  // Android only. How the HTTP cache handled the request, if it was involved:
+  cacheStatus?: 'hit' | 'revalidated' | 'miss'
+}
+
+/**
+ * The result of a single call inside a `batch` call.
+ */
+interface BatchOutcome {
+  value?: unknown
+  error?: string
+}
+
+export interface NativeBridgeOptions {
+  /**
+   * Methods that can be grouped into a single native `batch` call
+   * when several of them happen in the same tick.
+   */
+  batchMethods?: Array<keyof NativeMethods>
 }
 
 export interface NativeBridge {
@@ -44,14 +200,73 @@ export interface NativeBridge {
   reject: (id: number, message: string) => void
 }
 
+/**
+ * The most calls we will group into a single `batch` call.
+ */
+const MAX_BATCH_SIZE = 256
+
 export function makeNativeBridge(
-  doCall: (id: number, name: string, args: unknown[]) => void
+  doCall: (id: number, name: string, args: unknown[]) => void,
+  opts: NativeBridgeOptions = {}
 ): NativeBridge {
+  const { batchMethods = [] } = opts
   const list = makePendingList()
+  let queue: QueuedCall[] = []
+
+  function flush(): void {
+    const calls = queue
+    queue = []
+    if (calls.length === 0) return
+
+    if (calls.length === 1) {
+      const [call] = calls
+      send(list.add(call), call.name, call.args)
+      return
+    }
+
+    const id = list.add({
+      resolve(results) {
+        const outcomes = results as BatchOutcome[]
+        for (let i = 0; i < calls.length; ++i) {
+          const { error, value } = outcomes[i] ?? {
+            error: 'Missing batch result'
+          }
+          if (error != null) calls[i].reject(new Error(error))
+          else calls[i].resolve(value)
+        }
+      },
+      reject(error) {
+        for (const call of calls) call.reject(error)
+      }
+    })
+    send(id, 'batch', [calls.map(call => [call.name, call.args])])
+  }
+
+  function send(id: number, name: string, args: unknown[]): void {
+    try {
+      doCall(id, name, args)
+    } catch (error: unknown) {
+      const call = list.grab(id)
+      call.reject(error instanceof Error ? error : new Error(String(error)))
+    }
+  }
+
   return {
     call(name, ...args) {
       const promise = new Promise((resolve, reject) => {
-        doCall(list.add({ resolve, reject }), name, args)
+        if (!batchMethods.includes(name)) {
+          doCall(list.add({ resolve, reject }), name, args)
+          return
+        }
+
+        // Group calls made in the same tick:
+        queue.push({ name, args, resolve, reject })
+        if (queue.length >= MAX_BATCH_SIZE) flush()
+        else if (queue.length === 1) {
+          Promise.resolve()
+            .then(flush)
+            .catch(() => {})
+        }
       })
       // TypeScript can't check our Java / Swift return values:
       return promise as any
@@ -65,6 +280,25 @@ export function makeNativeBridge(
   }
 }
 
+/**
+ * Turns binary data into a `Uint8Array`, whichever way it arrived.
+ */
+export function decodeNativeBytes(data: NativeBytes): Uint8Array {
+  return typeof data === 'string' ? base64.parse(data) : data
+}
+
+/**
+ * Replaces binary arguments with base64 text,
+ * for transports that can only carry JSON.
+ */
+export function encodeNativeArgs(args: unknown[]): unknown[] {
+  return args.map(arg => {
+    if (arg instanceof Uint8Array) return base64.stringify(arg)
+    if (Array.isArray(arg)) return encodeNativeArgs(arg)
+    return arg
+  })
+}
+
 /**
  * A pending call into native code.
  */
@@ -73,6 +307,14 @@ interface PendingCall {
   reject: (error: Error) => void
 }
 
+/**
+ * A call waiting to join a batch.
+ */
+interface QueuedCall extends PendingCall {
+  name: string
+  args: unknown[]
+}
+
 /**
  * Maintains a list of pending native calls.
  */
@@ -0,0 +1,123 @@
+/**
+ * Methods that return binary data, so they are worth sending over the port
+ * even if their arguments are plain JSON.
+ */
+const binaryResultMethods = new Set([
+  'diskletGetData',
+  'fetchStreamRead',
+  'randomBytes',
+  'scrypt'
+])
+
+// Reply frame kinds:
+const REPLY_JSON = 0
+const REPLY_BYTES = 1
+const REPLY_ERROR = 2
+
+export interface NativePort {
+  /**
+   * Sends a call over the binary port, if the port is open and the call
+   * has binary arguments or results. Returns false otherwise,
+   * in which case the caller should use the JSON interface.
+   */
+  send: (id: number, name: string, args: unknown[]) => boolean
+}
+
+/**
+ * Waits for our Java code to offer a binary message port,
+ * which passes `Uint8Array` arguments and results as raw bytes
+ * instead of base64 text inside JSON.
+ *
+ * A call frame holds a 32-bit call id, a 16-bit name length and name,
+ * a 32-bit JSON length and argument array, and a binary argument count.
+ * Each binary argument has an 8-bit argument index, a 32-bit length,
+ * and its bytes. A reply frame holds a kind byte, the call id,
+ * and either JSON text, raw bytes, or an error message.
+ */
+export function listenForNativePort(
+  onResolve: (id: number, value: unknown) => void,
+  onReject: (id: number, message: string) => void
+): NativePort {
+  let port: MessagePort | undefined
+
+  // Old WebViews cannot handle the text conversions:
+  if (typeof TextEncoder !== 'function' || typeof TextDecoder !== 'function') {
+    return { send: () => false }
+  }
+  const encoder = new TextEncoder()
+  const decoder = new TextDecoder()
+
+  function handleReply(data: unknown): void {
+    if (!(data instanceof ArrayBuffer) || data.byteLength < 5) return
+    const view = new DataView(data)
+    const kind = view.getUint8(0)
+    const id = view.getUint32(1)
+    const payload = new Uint8Array(data, 5)
+
+    if (kind === REPLY_BYTES) {
+      onResolve(id, payload)
+    } else if (kind === REPLY_JSON) {
+      onResolve(id, JSON.parse(decoder.decode(payload)))
+    } else if (kind === REPLY_ERROR) {
+      onReject(id, decoder.decode(payload))
+    }
+  }
+
+  window.addEventListener('message', event => {
+    if (event.data !== 'edgeCoreBinary' || event.ports.length < 1) return
+
+    // Only the WebView itself posts messages with no source,
+    // so frames and other windows cannot slip in a port of their own.
+    // Ignore any later offers, too, since Java only sends one per page load:
+    if (event.source != null || port != null) return
+    port = event.ports[0]
+    port.onmessage = reply => handleReply(reply.data)
+  })
+
+  return {
+    send(id, name, args) {
+      if (port == null) return false
+
+      // Pull out the binary arguments:
+      const blobs: Array<[number, Uint8Array]> = []
+      const jsonArgs = args.map((arg, i) => {
+        if (!(arg instanceof Uint8Array)) return arg
+        blobs.push([i, arg])
+        return null
+      })
+      if (blobs.length === 0 && !binaryResultMethods.has(name)) return false
+
+      // Measure the frame:
+      const nameBytes = encoder.encode(name)
+      const jsonBytes = encoder.encode(JSON.stringify(jsonArgs))
+      let size = 4 + 2 + nameBytes.length + 4 + jsonBytes.length + 1
+      for (const [, blob] of blobs) size += 1 + 4 + blob.length
+
+      // Fill the frame:
+      const frame = new Uint8Array(size)
+      const view = new DataView(frame.buffer)
+      let pos = 0
+      view.setUint32(pos, id)
+      pos += 4
+      view.setUint16(pos, nameBytes.length)
+      pos += 2
+      frame.set(nameBytes, pos)
+      pos += nameBytes.length
+      view.setUint32(pos, jsonBytes.length)
+      pos += 4
+      frame.set(jsonBytes, pos)
+      pos += jsonBytes.length
+      view.setUint8(pos, blobs.length)
+      pos += 1
+      for (const [index, blob] of blobs) {
+        view.setUint8(pos, index)
+        view.setUint32(pos + 1, blob.length)
+        frame.set(blob, pos + 5)
+        pos += 5 + blob.length
+      }
+
+      port.postMessage(frame.buffer, [frame.buffer])
+      return true
+    }
+  }
+}
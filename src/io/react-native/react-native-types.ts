@@ -26,7 +26,10 @@ export interface WorkerApi {
 }
 
 export interface EdgeCoreMessageEvent {
-  nativeEvent: { message: string }
+  nativeEvent:
+    | { message: string; messages?: undefined }
+    // Android delivers bursts of messages as a batch:
+    | { message?: undefined; messages: string[] }
 }
 
 export interface EdgeCoreScriptError {
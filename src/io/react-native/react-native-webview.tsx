@@ -38,7 +38,15 @@ export class EdgeCoreBridge extends React.Component<Props> {
         allowDebugging={debug || allowDebugging}
         source={debug ? 'http://localhost:8080/' : null}
         style={{ opacity: 0, position: 'absolute', height: 1, width: 1 }}
-        onMessage={this.callbacks.handleMessage}
+        onMessage={event => {
+          const { message, messages } = event.nativeEvent
+          if (message != null) {
+            this.callbacks.handleMessage(message)
+          } else {
+            // Unpack batches in order:
+            for (const item of messages) this.callbacks.handleMessage(item)
+          }
+        }}
         onScriptError={event => {
           if (onError != null) {
             onError(new Error(`Cannot load "${event.nativeEvent.source}"`))
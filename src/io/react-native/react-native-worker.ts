@@ -11,6 +11,9 @@ import {
   makeFakeWorld
 } from '../../core/core'
 import { LogBackend, makeLog } from '../../core/log/log'
+import { NativeScryptIo } from '../../core/scrypt/scrypt-pixie'
+import { NativeDecryptDisklet } from '../../core/storage/encrypt-disklet'
+import { NativeBatchDisklet } from '../../core/storage/repo'
 import {
   EdgeFetchFunction,
   EdgeFetchOptions,
@@ -19,7 +22,12 @@ import {
 } from '../../types/types'
 import { initMixFetch, mixFetchOptions } from '../../util/nym'
 import { hideProperties } from '../hidden-properties'
-import { makeNativeBridge } from './native-bridge'
+import {
+  decodeNativeBytes,
+  encodeNativeArgs,
+  makeNativeBridge
+} from './native-bridge'
+import { listenForNativePort } from './native-port'
 import { WorkerApi, YAOB_THROTTLE_MS } from './react-native-types'
 
 // Tracks the status of different URI endpoints for the CORS bouncer:
@@ -35,13 +43,35 @@ const endpointCorsState = new Map<
 >()
 
 // Set up the bridges:
+const nativePort = listenForNativePort(
+  (id, value) => window.nativeBridge.resolve(id, value),
+  (id, message) => window.nativeBridge.reject(id, message)
+)
 const [nativeBridge, reactBridge] =
   window.edgeCore != null
     ? [
         // Android:
-        makeNativeBridge((id, name, args) => {
-          window.edgeCore.call(id, name, JSON.stringify(args))
-        }),
+        makeNativeBridge(
+          (id, name, args) => {
+            if (nativePort.send(id, name, args)) return
+            window.edgeCore.call(
+              id,
+              name,
+              JSON.stringify(encodeNativeArgs(args))
+            )
+          },
+          {
+            batchMethods: [
+              'diskletDelete',
+              'diskletGetData',
+              'diskletGetDecrypted',
+              'diskletGetText',
+              'diskletList',
+              'diskletSetData',
+              'diskletSetText'
+            ]
+          }
+        ),
         new Bridge({
           hideProperties,
           sendMessage(message) {
@@ -53,7 +83,11 @@ const [nativeBridge, reactBridge] =
     : [
         // iOS:
         makeNativeBridge((id, name, args) => {
-          window.webkit.messageHandlers.edgeCore.postMessage([id, name, args])
+          window.webkit.messageHandlers.edgeCore.postMessage([
+            id,
+            name,
+            encodeNativeArgs(args)
+          ])
         }),
         new Bridge({
           hideProperties,
@@ -100,72 +134,134 @@ async function makeIo(logBackend: LogBackend): Promise<EdgeIo> {
   const log = makeLog(logBackend, 'react-native-io')
   const csprng = new HmacDRBG({
     hash: hashjs.sha256,
-    entropy: base64.parse(await nativeBridge.call('randomBytes', 32))
+    entropy: decodeNativeBytes(await nativeBridge.call('randomBytes', 32))
   })
 
+  let lastRequestId = 0
   const nativeFetch: EdgeFetchFunction = async (uri, opts = {}) => {
     const { method = 'GET', headers = {}, body } = opts
-    const response = await nativeBridge.call(
-      'fetch',
-      uri,
-      method,
-      headers,
-      body instanceof ArrayBuffer
-        ? base64.stringify(new Uint8Array(body))
-        : body,
-      body instanceof ArrayBuffer
-    )
+    const {
+      cache,
+      compressBody = false,
+      priority = 'auto',
+      signal
+    } = opts as {
+      cache?: RequestCache
+      compressBody?: boolean // Android only, for servers that accept gzip
+      priority?: 'high' | 'low' | 'auto'
+      signal?: AbortSignal | null
+    }
+    if (signal?.aborted === true) throw new Error('Native fetch: Cancelled')
+
+    // Android can abort the request natively, freeing its thread & socket:
+    const requestId = ++lastRequestId
+    const onAbort = (): void => {
+      nativeBridge.call('fetchCancel', requestId).catch(() => {})
+    }
+    if (window.edgeCore != null) signal?.addEventListener('abort', onAbort)
+
+    const response = await nativeBridge
+      .call(
+        'fetch',
+        uri,
+        method,
+        headers,
+        body instanceof ArrayBuffer ? new Uint8Array(body) : body,
+        body instanceof ArrayBuffer,
+        {
+          // Only callers who ask for HTTP caching get the disk cache:
+          cache: method === 'GET' && cache === 'default',
+          compressBody,
+          priority: priority === 'auto' ? 'normal' : priority,
+          stream: typeof ReadableStream === 'function',
+          requestId
+        }
+      )
+      .finally(() => signal?.removeEventListener('abort', onAbort))
 
+    if (response.streamId != null) {
+      return makeStreamResponse(
+        response.status,
+        response.headers,
+        response.streamId
+      )
+    }
     return makeFetchResponse({
       status: response.status,
       headers: response.headers,
-      body: response.bodyIsBase64 ? base64.parse(response.body) : response.body
+      body:
+        response.bodyIsBase64 === true
+          ? base64.parse(response.body ?? '')
+          : response.body
     })
   }
 
-  const io: EdgeIo = {
-    disklet: {
-      delete(path) {
-        return nativeBridge.call('diskletDelete', normalizePath(path))
-      },
-      async getData(path) {
-        const data: string = await nativeBridge.call(
-          'diskletGetData',
-          normalizePath(path)
-        )
-        return base64.parse(data)
-      },
-      getText(path) {
-        return nativeBridge.call('diskletGetText', normalizePath(path))
-      },
-      list(path = '') {
-        return nativeBridge.call('diskletList', normalizePath(path))
-      },
-      setData(path, data: any) {
-        return nativeBridge.call(
-          'diskletSetData',
-          normalizePath(path),
-          base64.stringify(data)
-        )
-      },
-      setText(path, text) {
-        return nativeBridge.call('diskletSetText', normalizePath(path), text)
-      }
+  const disklet: NativeDecryptDisklet & NativeBatchDisklet = {
+    delete(path) {
+      return nativeBridge.call('diskletDelete', normalizePath(path))
+    },
+    async getData(path) {
+      const data = await nativeBridge.call('diskletGetData', normalizePath(path))
+      return decodeNativeBytes(data)
     },
+    getText(path) {
+      return nativeBridge.call('diskletGetText', normalizePath(path))
+    },
+    list(path = '') {
+      return nativeBridge.call('diskletList', normalizePath(path))
+    },
+    setData(path, data: any) {
+      return nativeBridge.call(
+        'diskletSetData',
+        normalizePath(path),
+        data instanceof Uint8Array ? data : Uint8Array.from(data)
+      )
+    },
+    setText(path, text) {
+      return nativeBridge.call('diskletSetText', normalizePath(path), text)
+    }
+  }
+
+  // Only Android can decrypt and batch writes natively:
+  if (window.edgeCore != null) {
+    disklet.writeBatch = async changes => {
+      await nativeBridge.call(
+        'diskletWriteBatch',
+        changes.map(({ path, text }) =>
+          text != null
+            ? { path: normalizePath(path), text }
+            : { path: normalizePath(path) }
+        )
+      )
+    }
+    disklet.getDecryptedData = async (paths, key) => {
+      const data = await nativeBridge.call(
+        'diskletGetDecrypted',
+        paths.map(normalizePath),
+        key,
+        false
+      )
+      return decodeNativeBytes(data)
+    }
+    disklet.getDecryptedText = async (paths, key) => {
+      const text = await nativeBridge.call(
+        'diskletGetDecrypted',
+        paths.map(normalizePath),
+        key,
+        true
+      )
+      return text as string
+    }
+  }
+
+  const io: NativeScryptIo = {
+    disklet,
 
     random: bytes => csprng.generate(bytes),
 
     async scrypt(data, salt, n, r, p, dklen) {
-      const hash: string = await nativeBridge.call(
-        'scrypt',
-        base64.stringify(data),
-        base64.stringify(salt),
-        n,
-        r,
-        p,
-        dklen
-      )
-      return base64.parse(hash)
+      const hash = await nativeBridge.call('scrypt', data, salt, n, r, p, dklen)
+      return decodeNativeBytes(hash)
     },
 
     // Networking:
@@ -233,9 +329,37 @@ async function makeIo(logBackend: LogBackend): Promise<EdgeIo> {
     }
   }
 
+  // Only Android can benchmark natively:
+  if (window.edgeCore != null) {
+    io.scryptBenchmark = async () =>
+      await nativeBridge.call('scryptBenchmark', { n: 16384, r: 8, p: 1 })
+  }
+
   return io
 }
 
+/**
+ * Wraps a native fetch stream in a browser `Response`,
+ * which pulls chunks from native code as the reader asks for them.
+ */
+function makeStreamResponse(
+  status: number,
+  headers: { [name: string]: string },
+  streamId: number
+): EdgeFetchResponse {
+  const body = new ReadableStream<Uint8Array>({
+    async pull(controller) {
+      const chunk = await nativeBridge.call('fetchStreamRead', streamId)
+      if (chunk == null) controller.close()
+      else controller.enqueue(decodeNativeBytes(chunk))
+    },
+    async cancel() {
+      await nativeBridge.call('fetchStreamCancel', streamId)
+    }
+  })
+  return new Response(body, { status, headers })
+}
+
 /**
  * Interprets a path as a series of folder lookups,
  * handling special components like `.` and `..`.
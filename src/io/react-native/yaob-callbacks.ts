@@ -4,22 +4,18 @@ import { findNodeHandle, UIManager } from 'react-native'
 import { Bridge, onMethod } from 'yaob'
 
 import { hideProperties } from '../hidden-properties'
-import {
-  EdgeCoreMessageEvent,
-  EdgeCoreWebViewRef,
-  YAOB_THROTTLE_MS
-} from './react-native-types'
+import { EdgeCoreWebViewRef, YAOB_THROTTLE_MS } from './react-native-types'
 
 export interface YaobCallbacks {
-  handleMessage: (event: EdgeCoreMessageEvent) => void
+  handleMessage: (messageJson: string) => void
   setRef: (element: EdgeCoreWebViewRef | null) => void
 }
 
 /**
  * Sets up a YAOB bridge for use with a React Native WebView.
- * The returned callbacks should be passed to the `onMessage` and `ref`
- * properties of the WebView. Handles WebView reloads and related
- * race conditions.
+ * Pass each message from the WebView's `onMessage` event to the
+ * returned `handleMessage` callback, and pass `setRef` to the WebView's
+ * `ref` property. Handles WebView reloads and related race conditions.
  * @param {*} onRoot Called when the inner HTML sends a root object.
  * May be called multiple times if the inner HTML reloads.
  * @param {*} debug Provide a message prefix to enable debugging.
@@ -41,8 +37,8 @@ export function makeYaobCallbacks<Root>(
   }
 
   // Feed incoming messages into the YAOB bridge (if any):
-  function handleMessage(event: EdgeCoreMessageEvent): void {
-    const message = JSON.parse(event.nativeEvent.message)
+  function handleMessage(messageJson: string): void {
+    const message = JSON.parse(messageJson)
     if (debug != null) console.info(`${debug} →`, message)
 
     // This is a terrible hack. We are using our inside knowledge
@@ -1,7 +1,36 @@
 import { expect } from 'chai'
 import { describe, it } from 'mocha'
 
-import { calcSnrpForTarget } from '../../../src/core/scrypt/scrypt-pixie'
+import {
+  benchmarkScrypt,
+  calcSnrpForTarget,
+  NativeScryptIo
+} from '../../../src/core/scrypt/scrypt-pixie'
+import { makeFakeIo } from '../../../src/index'
+import { EdgeLog } from '../../../src/types/types'
+
+/**
+ * Records log messages, so tests can see which benchmark ran.
+ */
+function makeFakeLog(): { log: EdgeLog; messages: string[] } {
+  const messages: string[] = []
+  const log: EdgeLog = Object.assign(
+    (...args: unknown[]) => {
+      messages.push(args.join(' '))
+    },
+    {
+      breadcrumb() {},
+      crash() {},
+      warn(...args: unknown[]) {
+        messages.push(`warn: ${args.join(' ')}`)
+      },
+      error(...args: unknown[]) {
+        messages.push(`error: ${args.join(' ')}`)
+      }
+    }
+  )
+  return { log, messages }
+}
 
 describe('SNRP calculation', function () {
   const salt = new Uint8Array(32)
@@ -31,4 +60,40 @@ describe('SNRP calculation', function () {
       p: 64
     })
   })
+
+  it('prefers the native benchmark', async function () {
+    const { log, messages } = makeFakeLog()
+    const io: NativeScryptIo = {
+      ...makeFakeIo(),
+      scryptBenchmark: async () => ({ medianMs: 12, cached: true })
+    }
+    const benchMs = await benchmarkScrypt(io, log, async () => {
+      throw new Error('The JavaScript benchmark should not run')
+    })
+
+    expect(benchMs).equals(12)
+    expect(messages).deep.equals(['native scrypt benchmark: 12ms (cached)'])
+  })
+
+  it('falls back when the native benchmark fails', async function () {
+    const { log, messages } = makeFakeLog()
+    const io: NativeScryptIo = {
+      ...makeFakeIo(),
+      scryptBenchmark: async () => {
+        throw new Error('No scrypt')
+      }
+    }
+
+    expect(await benchmarkScrypt(io, log, async () => 32)).equals(32)
+    expect(messages).deep.equals([
+      'warn: native scrypt benchmark failed: Error: No scrypt'
+    ])
+  })
+
+  it('uses the JavaScript benchmark without native support', async function () {
+    const { log, messages } = makeFakeLog()
+
+    expect(await benchmarkScrypt(makeFakeIo(), log, async () => 32)).equals(32)
+    expect(messages).deep.equals([])
+  })
 })
@@ -6,8 +6,19 @@ import {
   EdgeInternalStuff,
   getInternalStuff
 } from '../../../src/core/context/internal-api'
-import { makeRepoPaths } from '../../../src/core/storage/repo'
+import { NativeDecryptDisklet } from '../../../src/core/storage/encrypt-disklet'
+import {
+  makeRepoPaths,
+  NativeBatchDisklet,
+  saveChanges
+} from '../../../src/core/storage/repo'
+import { StorageWalletPaths } from '../../../src/core/storage/storage-reducer'
 import { makeFakeEdgeWorld, makeFakeIo } from '../../../src/index'
+import { asEdgeBox, wasEdgeBox } from '../../../src/types/server-cleaners'
+import { EdgeBox } from '../../../src/types/server-types'
+import { EdgeIo } from '../../../src/types/types'
+import { decrypt, decryptText, encrypt } from '../../../src/util/crypto/crypto'
+import { utf8 } from '../../../src/util/encoding'
 import { fakeUser } from '../../fake/fake-user'
 
 const contextOptions = { apiKey: '', appId: '' }
@@ -15,6 +26,72 @@ const dataKey = base64.parse(fakeUser.loginKey)
 const syncKey = base64.parse(fakeUser.syncKey)
 const quiet = { onLog() {} }
 
+type WriteBatch = Parameters<Required<NativeBatchDisklet>['writeBatch']>[0]
+
+/**
+ * Adds fake native decryption and batch methods to an io object,
+ * recording the paths each call asks for.
+ */
+function makeNativeIo(): {
+  io: EdgeIo
+  batches: WriteBatch[]
+  lookups: string[][]
+} {
+  const io = makeFakeIo()
+  const batches: WriteBatch[] = []
+  const lookups: string[][] = []
+
+  async function getFirstBox(paths: string[]): Promise<EdgeBox> {
+    lookups.push(paths)
+    for (const path of paths) {
+      const text = await io.disklet.getText(path).catch(() => undefined)
+      if (text != null) return asEdgeBox(JSON.parse(text))
+    }
+    throw new Error(`Cannot find ${paths.join(', ')}`)
+  }
+
+  const disklet: NativeDecryptDisklet & NativeBatchDisklet = {
+    delete: path => io.disklet.delete(path),
+    getData: path => io.disklet.getData(path),
+    getText: path => io.disklet.getText(path),
+    list: path => io.disklet.list(path),
+    setData: (path, data) => io.disklet.setData(path, data),
+    setText: (path, text) => io.disklet.setText(path, text),
+
+    async getDecryptedData(paths, key) {
+      return decrypt(await getFirstBox(paths), key)
+    },
+    async getDecryptedText(paths, key) {
+      return decryptText(await getFirstBox(paths), key)
+    },
+
+    async writeBatch(changes) {
+      batches.push(changes)
+      for (const { path, text } of changes) {
+        if (text != null) await io.disklet.setText(path, text)
+        else await io.disklet.delete(path)
+      }
+    }
+  }
+  return { io: { ...io, disklet }, batches, lookups }
+}
+
+/**
+ * Saves a file to both repo folders, with different contents in each,
+ * plus a file that only exists in the data folder.
+ */
+async function writeRepoFiles(
+  io: EdgeIo,
+  paths: StorageWalletPaths
+): Promise<void> {
+  const box = (text: string): string =>
+    JSON.stringify(wasEdgeBox(encrypt(io, utf8.parse(text), dataKey)))
+
+  await paths.changesDisklet.setText('a/b.json', box('changes'))
+  await paths.dataDisklet.setText('a/b.json', box('data'))
+  await paths.dataDisklet.setText('c.json', box('data only'))
+}
+
 describe('repo', function () {
   it('read file', async function () {
     const io = makeFakeIo()
@@ -42,6 +119,59 @@ describe('repo', function () {
     expect(await disklet.getText('b.txt')).equals(payload)
   })
 
+  it('native decrypt follows the merged lookup order', async function () {
+    const { io, lookups } = makeNativeIo()
+    const paths = makeRepoPaths(io, { syncKey, dataKey })
+    const { disklet } = paths
+    await writeRepoFiles(io, paths)
+
+    expect(await disklet.getText('a/b.json')).equals('changes')
+    expect(await disklet.getText('c.json')).equals('data only')
+    expect(utf8.stringify(await disklet.getData('a/b.json'))).equals(
+      'changes'
+    )
+
+    const basePath = 'repos/GkVrxd1EmZpU6SkEwfo3911t1WjwBDW3tdrKd7QUDvvN'
+    expect(lookups).deep.equals([
+      [`${basePath}/changes/a/b.json`, `${basePath}/data/a/b.json`],
+      [`${basePath}/changes/c.json`, `${basePath}/data/c.json`],
+      [`${basePath}/changes/a/b.json`, `${basePath}/data/a/b.json`]
+    ])
+  })
+
+  it('saves changes in one native batch', async function () {
+    const { io, batches } = makeNativeIo()
+    const paths = makeRepoPaths(io, { syncKey, dataKey })
+    const box = encrypt(io, utf8.parse('new'), dataKey)
+    await saveChanges(paths.dataDisklet, { 'a/b.json': box, 'c.json': null })
+
+    const basePath = 'repos/GkVrxd1EmZpU6SkEwfo3911t1WjwBDW3tdrKd7QUDvvN'
+    expect(batches).deep.equals([
+      [
+        {
+          path: `${basePath}/data/a/b.json`,
+          text: JSON.stringify(wasEdgeBox(box))
+        },
+        { path: `${basePath}/data/c.json`, text: null }
+      ]
+    ])
+    expect(await paths.disklet.getText('a/b.json')).equals('new')
+  })
+
+  it('decrypts in JavaScript without native methods', async function () {
+    const io = makeFakeIo()
+    const paths = makeRepoPaths(io, { syncKey, dataKey })
+    const { disklet } = paths
+    await writeRepoFiles(io, paths)
+
+    // These should match the native results:
+    expect(await disklet.getText('a/b.json')).equals('changes')
+    expect(await disklet.getText('c.json')).equals('data only')
+    expect(utf8.stringify(await disklet.getData('a/b.json'))).equals(
+      'changes'
+    )
+  })
+
   it('repo-to-repo sync', async function () {
     const world = await makeFakeEdgeWorld([fakeUser], quiet)
     const context1 = await world.makeEdgeContext(contextOptions)
@@ -0,0 +1,165 @@
+import { expect } from 'chai'
+import { describe, it } from 'mocha'
+
+import {
+  encodeNativeArgs,
+  makeNativeBridge,
+  NativeBridge
+} from '../../../src/io/react-native/native-bridge'
+import { snooze } from '../../../src/util/snooze'
+import { expectRejection } from '../../expect-rejection'
+
+interface SentCall {
+  id: number
+  name: string
+  args: unknown[]
+}
+
+function makeFakeBridge(): { bridge: NativeBridge; sent: SentCall[] } {
+  const sent: SentCall[] = []
+  const bridge = makeNativeBridge(
+    (id, name, args) => {
+      sent.push({ id, name, args })
+    },
+    { batchMethods: ['diskletGetText', 'diskletSetText'] }
+  )
+  return { bridge, sent }
+}
+
+describe('native bridge', function () {
+  it('sends other methods right away', async function () {
+    const { bridge, sent } = makeFakeBridge()
+
+    const promise = bridge.call('randomBytes', 32)
+    expect(sent).deep.equals([{ id: 1, name: 'randomBytes', args: [32] }])
+
+    bridge.resolve(1, 'AAAA')
+    expect(await promise).equals('AAAA')
+  })
+
+  it('sends a lone batchable call by itself', async function () {
+    const { bridge, sent } = makeFakeBridge()
+
+    const promise = bridge.call('diskletGetText', 'a.txt')
+    expect(sent).deep.equals([])
+
+    await snooze(1)
+    expect(sent).deep.equals([
+      { id: 1, name: 'diskletGetText', args: ['a.txt'] }
+    ])
+
+    bridge.resolve(1, 'hello')
+    expect(await promise).equals('hello')
+  })
+
+  it('groups calls made in the same tick', async function () {
+    const { bridge, sent } = makeFakeBridge()
+
+    const a = bridge.call('diskletGetText', 'a.txt')
+    const b = bridge.call('diskletSetText', 'b.txt', 'text')
+    const c = bridge.call('diskletGetText', 'c.txt')
+    await snooze(1)
+    expect(sent).deep.equals([
+      {
+        id: 1,
+        name: 'batch',
+        args: [
+          [
+            ['diskletGetText', ['a.txt']],
+            ['diskletSetText', ['b.txt', 'text']],
+            ['diskletGetText', ['c.txt']]
+          ]
+        ]
+      }
+    ])
+
+    bridge.resolve(1, [{ value: 'a' }, { error: 'No file' }])
+    expect(await a).equals('a')
+    await expectRejection(b, 'Error: No file')
+    await expectRejection(c, 'Error: Missing batch result')
+  })
+
+  it('rejects every call when the batch fails', async function () {
+    const { bridge, sent } = makeFakeBridge()
+
+    const a = bridge.call('diskletGetText', 'a.txt')
+    const b = bridge.call('diskletGetText', 'b.txt')
+    await snooze(1)
+    expect(sent.length).equals(1)
+
+    bridge.reject(sent[0].id, 'Bridge broke')
+    await expectRejection(a, 'Error: Bridge broke')
+    await expectRejection(b, 'Error: Bridge broke')
+  })
+
+  it('flushes full batches right away', async function () {
+    const { bridge, sent } = makeFakeBridge()
+
+    const promises: Array<Promise<string>> = []
+    for (let i = 0; i < 257; ++i) {
+      promises.push(bridge.call('diskletGetText', `${i}.txt`))
+    }
+
+    // The first 256 calls go out without waiting:
+    expect(sent.length).equals(1)
+    expect(sent[0].name).equals('batch')
+    expect((sent[0].args[0] as unknown[]).length).equals(256)
+
+    // The leftover call goes out on its own:
+    await snooze(1)
+    expect(sent.length).equals(2)
+    expect(sent[1]).deep.equals({
+      id: 2,
+      name: 'diskletGetText',
+      args: ['256.txt']
+    })
+
+    bridge.resolve(
+      sent[0].id,
+      promises.slice(0, 256).map((_, i) => ({ value: String(i) }))
+    )
+    bridge.resolve(sent[1].id, '256')
+    expect(await Promise.all(promises)).deep.equals(
+      promises.map((_, i) => String(i))
+    )
+  })
+
+  it('rejects the batch if sending throws', async function () {
+    const bridge = makeNativeBridge(
+      () => {
+        throw new Error('No native module')
+      },
+      { batchMethods: ['diskletGetText'] }
+    )
+
+    const a = bridge.call('diskletGetText', 'a.txt')
+    const b = bridge.call('diskletGetText', 'b.txt')
+    await expectRejection(a, 'Error: No native module')
+    await expectRejection(b, 'Error: No native module')
+  })
+
+  it('encodes nested binary arguments', function () {
+    const data = Uint8Array.from([1, 2, 3])
+    expect(
+      encodeNativeArgs([
+        'path',
+        data,
+        [
+          ['diskletSetData', ['a.bin', data]],
+          ['diskletGetText', ['b.txt']]
+        ],
+        { data },
+        null
+      ])
+    ).deep.equals([
+      'path',
+      'AQID',
+      [
+        ['diskletSetData', ['a.bin', 'AQID']],
+        ['diskletGetText', ['b.txt']]
+      ],
+      { data },
+      null
+    ])
+  })
+})